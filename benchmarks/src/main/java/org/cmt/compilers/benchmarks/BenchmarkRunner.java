@@ -0,0 +1,41 @@
+// Arquivo: BenchmarkRunner.java
+package main.java.org.cmt.compilers.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import java.io.IOException;
+
+/**
+ * Ponto de entrada do benchmarks.jar.
+ *
+ * Aceita as mesmas opções do JMH (ex: `-p program=numeric-loops`,
+ * `-p dispatch=table`, `-f 3`, ou um filtro como `PipelineBenchmark.lex`),
+ * e sempre liga o profiler de GC, para o relatório trazer a taxa de
+ * alocação junto da vazão. Sem filtro, roda o PipelineBenchmark e o
+ * CompileScalingBenchmark.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {}
+
+    public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(PipelineBenchmark.class.getSimpleName())
+                    .include(CompileScalingBenchmark.class.getSimpleName());
+        }
+        new Runner(options.build()).run();
+    }
+}
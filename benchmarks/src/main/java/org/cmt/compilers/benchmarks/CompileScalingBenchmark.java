@@ -0,0 +1,93 @@
+// Arquivo: CompileScalingBenchmark.java
+package main.java.org.cmt.compilers.benchmarks;
+
+import main.java.org.cmt.compilers.Diagnostics;
+import main.java.org.cmt.compilers.Heuler;
+import main.java.org.cmt.compilers.bytecode.Chunk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escalabilidade da compilação com o número de threads.
+ *
+ * Cada operação compila COMPILATIONS programas do {@link Corpus} (em rodízio),
+ * divididos entre `threads` threads de um pool fixo. Como cada compilação
+ * tem o seu próprio Diagnostics e nada é compartilhado entre elas, a vazão
+ * (operações/s) deve crescer com o número de threads até o número de núcleos
+ * da máquina.
+ *
+ * Ex: `java -jar benchmarks.jar CompileScalingBenchmark -p threads=1,2,4,8`
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileScalingBenchmark {
+
+    /** Compilações feitas por operação (divididas entre as threads). */
+    static final int COMPILATIONS = 64;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1"})
+    public int optimization;
+
+    private String[] sources;
+    private ExecutorService pool;
+
+    @Setup
+    public void prepare() {
+        sources = new String[Corpus.ALL.length];
+        for (int i = 0; i < sources.length; i++) sources[i] = Corpus.load(Corpus.ALL[i]);
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public int compileAll() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> parts = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            parts.add(pool.submit(() -> compileEvery(first)));
+        }
+        int bytes = 0;
+        for (Future<Integer> part : parts) bytes += part.get();
+        return bytes;
+    }
+
+    // Compilações first, first + threads, first + 2 * threads, ... (menores que COMPILATIONS)
+    private int compileEvery(int first) {
+        int bytes = 0;
+        for (int i = first; i < COMPILATIONS; i += threads) {
+            Diagnostics diagnostics = new Diagnostics();
+            Chunk chunk = Heuler.compile(sources[i % sources.length], optimization, diagnostics);
+            if (chunk == null) throw new IllegalStateException("Falha ao compilar: " + diagnostics.getMessages());
+            bytes += chunk.count();
+        }
+        return bytes;
+    }
+}
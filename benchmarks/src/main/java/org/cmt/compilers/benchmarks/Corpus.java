@@ -0,0 +1,38 @@
+// Arquivo: Corpus.java
+package main.java.org.cmt.compilers.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Programas Heuler usados nos benchmarks (em src/main/recursos/corpus):
+ * - numeric-loops:   laços numéricos com locais tipadas e aritmética;
+ * - string-building: concatenação em laço e em cadeia, comparação de status;
+ * - deep-nesting:    blocos, if e while encaixados 40 níveis, com locais;
+ * - many-globals:    400 globais definidas e atualizadas num laço.
+ */
+final class Corpus {
+
+    static final String NUMERIC_LOOPS = "numeric-loops";
+    static final String STRING_BUILDING = "string-building";
+    static final String DEEP_NESTING = "deep-nesting";
+    static final String MANY_GLOBALS = "many-globals";
+
+    /** Todos os programas do corpus. */
+    static final String[] ALL = { NUMERIC_LOOPS, STRING_BUILDING, DEEP_NESTING, MANY_GLOBALS };
+
+    private Corpus() {}
+
+    /** Código-fonte do programa `name` (um dos nomes acima). */
+    static String load(String name) {
+        String resource = "/corpus/" + name + ".heuler";
+        try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalArgumentException("Programa do corpus não encontrado: " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+// Arquivo: PipelineBenchmark.java
+package main.java.org.cmt.compilers.benchmarks;
+
+import main.java.org.cmt.compilers.Diagnostics;
+import main.java.org.cmt.compilers.Heuler;
+import main.java.org.cmt.compilers.bytecode.Chunk;
+import main.java.org.cmt.compilers.bytecode.CompiledProgram;
+import main.java.org.cmt.compilers.bytecode.Compiler;
+import main.java.org.cmt.compilers.bytecode.DispatchEngine;
+import main.java.org.cmt.compilers.bytecode.InterpretResult;
+import main.java.org.cmt.compilers.bytecode.OutputSink;
+import main.java.org.cmt.compilers.bytecode.VM;
+import main.java.org.cmt.compilers.lexico.Lexer;
+import main.java.org.cmt.compilers.lexico.Token;
+import main.java.org.cmt.compilers.otimizacao.ConstantFolder;
+import main.java.org.cmt.compilers.sintatico.Parser;
+import main.java.org.cmt.compilers.sintatico.Resolver;
+import main.java.org.cmt.compilers.sintatico.Stmt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vazão (operações/s) de cada fase do pipeline e da execução completa,
+ * para cada programa do {@link Corpus}.
+ *
+ * Cada fase recebe a saída da fase anterior já pronta (montada no @Setup),
+ * então mede só o próprio trabalho:
+ *   lex -> parse -> resolve -> compile -> interpret
+ * e endToEnd faz tudo a partir do código-fonte, como o driver (sem o cache
+ * em disco e sem imprimir: a saída vai para OutputSink.NULL).
+ *
+ * Rodado pelo {@link BenchmarkRunner}, o relatório inclui também a taxa de
+ * alocação (gc.alloc.rate e gc.alloc.rate.norm, do profiler de GC do JMH).
+ *
+ * Um programa que não compila ou não executa até o fim faria uma operação
+ * curta demais e inflaria a vazão. Por isso o @Setup compila e executa
+ * cada programa (nos dois engines) e recusa o trial se houver erro, e os
+ * benchmarks falham em vez de medir um resultado com erro.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    /** Um programa do corpus e a saída de cada fase, prontos para a fase seguinte. */
+    @State(Scope.Benchmark)
+    public static class ProgramState {
+
+        @Param({Corpus.NUMERIC_LOOPS, Corpus.STRING_BUILDING, Corpus.DEEP_NESTING, Corpus.MANY_GLOBALS})
+        public String program;
+
+        // Mesmo significado do -O do driver (o padrão dele é 1)
+        @Param({"1"})
+        public int optimization;
+
+        String source;
+        List<Token> tokens;
+        List<Stmt> statements;         // Saída do parser (entrada do resolver)
+        List<Stmt> compilerInput;      // Resolvida e, com -O1 ou mais, dobrada
+        CompiledProgram compiled;
+
+        @Setup
+        public void prepare() {
+            source = Corpus.load(program);
+            Diagnostics diagnostics = new Diagnostics();
+
+            tokens = new Lexer(diagnostics).scanTokens(source).getTokens();
+            statements = new Parser(tokens, diagnostics).parse();
+            new Resolver(diagnostics).resolve(statements);
+            compilerInput = optimization >= 1 ? new ConstantFolder().fold(statements) : statements;
+            boolean compiles = !diagnostics.hadError() && new Compiler(diagnostics).compile(compilerInput);
+            Chunk chunk = compiles ? Heuler.compile(source, optimization, diagnostics) : null;
+            if (chunk == null || diagnostics.hadError()) {
+                throw new IllegalStateException("Programa '" + program + "' não compila: " + diagnostics.getMessages());
+            }
+            compiled = CompiledProgram.of(chunk);
+
+            for (DispatchEngine engine : new DispatchEngine[] {DispatchEngine.SWITCH, DispatchEngine.TABLE}) {
+                Diagnostics runtime = new Diagnostics();
+                InterpretResult result = new VM(engine, runtime, OutputSink.NULL).interpret(compiled);
+                if (result != InterpretResult.INTERPRET_OK || runtime.hadError()) {
+                    throw new IllegalStateException("Programa '" + program + "' falha ao executar: " + runtime.getMessages());
+                }
+            }
+        }
+    }
+
+    /** Engine de despacho das VMs ("switch" ou "table", como -Dheuler.dispatch). */
+    @State(Scope.Benchmark)
+    public static class EngineState {
+
+        @Param({"switch", "table"})
+        public String dispatch;
+
+        DispatchEngine engine;
+
+        @Setup
+        public void prepare() {
+            engine = DispatchEngine.fromName(dispatch);
+        }
+    }
+
+    @Benchmark
+    public List<Token> lex(ProgramState state) {
+        return new Lexer(new Diagnostics()).scanTokens(state.source).getTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse(ProgramState state) {
+        return new Parser(state.tokens, new Diagnostics()).parse();
+    }
+
+    @Benchmark
+    public Diagnostics resolve(ProgramState state) {
+        Diagnostics diagnostics = new Diagnostics();
+        new Resolver(diagnostics).resolve(state.statements);
+        return diagnostics;
+    }
+
+    @Benchmark
+    public Chunk compile(ProgramState state) {
+        Diagnostics diagnostics = new Diagnostics();
+        Compiler compiler = new Compiler(diagnostics);
+        if (!compiler.compile(state.compilerInput)) {
+            throw new IllegalStateException("Falha ao compilar: " + diagnostics.getMessages());
+        }
+        return compiler.getCompiledChunk();
+    }
+
+    @Benchmark
+    public InterpretResult interpret(ProgramState state, EngineState engine) {
+        Diagnostics diagnostics = new Diagnostics();
+        return requireOk(new VM(engine.engine, diagnostics, OutputSink.NULL).interpret(state.compiled), diagnostics);
+    }
+
+    @Benchmark
+    public InterpretResult endToEnd(ProgramState state, EngineState engine) {
+        Diagnostics diagnostics = new Diagnostics();
+        Chunk chunk = Heuler.compile(state.source, state.optimization, diagnostics);
+        if (chunk == null) throw new IllegalStateException("Falha ao compilar: " + diagnostics.getMessages());
+        return requireOk(new VM(engine.engine, diagnostics, OutputSink.NULL).interpret(CompiledProgram.of(chunk)), diagnostics);
+    }
+
+    // Uma execução que parou num erro não conta como operação medida
+    private static InterpretResult requireOk(InterpretResult result, Diagnostics diagnostics) {
+        if (result != InterpretResult.INTERPRET_OK) {
+            throw new IllegalStateException("Erro de execução: " + diagnostics.getMessages());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+// Arquivo: CompileCache.java
+package main.java.org.cmt.compilers;
+
+import main.java.org.cmt.compilers.bytecode.Chunk;
+import main.java.org.cmt.compilers.bytecode.ChunkSerializer;
+import main.java.org.cmt.compilers.bytecode.Compiler;
+import main.java.org.cmt.compilers.bytecode.OpCode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cache em disco do bytecode compilado (arquivos .hbc).
+ *
+ * A chave é o SHA-256 do código-fonte junto com o nível de otimização e
+ * a identidade do gerador de código: a versão do formato .hbc, a versão do
+ * compilador (Compiler.CODEGEN_VERSION) e a tabela de opcodes (nome e
+ * tamanho de cada um). Se o fonte não mudou, o driver carrega o .hbc e pula
+ * léxico, parser, resolver e compilador; se o compilador mudou, a chave
+ * muda junto e o programa é recompilado.
+ *
+ * O diretório padrão é `.heuler-cache` e pode ser trocado com
+ * -Dheuler.cache.dir=<dir>; -Dheuler.cache=false desliga o cache.
+ * Falhas de leitura/escrita nunca são fatais: o programa só é recompilado.
+ */
+class CompileCache {
+
+    // Identidade do gerador de código, calculada uma vez (ver o comentário da classe)
+    private static final String CODEGEN = codegenFingerprint();
+
+    private final Path directory;
+
+    CompileCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /** Cache configurado pelas propriedades do sistema, ou null se desligado. */
+    static CompileCache fromSystemProperties() {
+        if ("false".equalsIgnoreCase(System.getProperty("heuler.cache"))) return null;
+        return new CompileCache(Paths.get(System.getProperty("heuler.cache.dir", ".heuler-cache")));
+    }
+
+    /** Chave do cache para este fonte no nível de otimização dado. */
+    static String key(String source, int optimizationLevel) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((CODEGEN + "-O" + optimizationLevel + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponível.", e); // Todo JRE tem SHA-256
+        }
+    }
+
+    private static String codegenFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append("hbc").append(ChunkSerializer.FORMAT_VERSION)
+                .append("-cg").append(Compiler.CODEGEN_VERSION);
+        for (int opcode = 0; opcode < OpCode.COUNT; opcode++) {
+            fingerprint.append(';').append(OpCode.name(opcode)).append('/').append(OpCode.length(opcode));
+        }
+        return fingerprint.toString();
+    }
+
+    /** Retorna o chunk em cache para a chave, ou null se não houver um válido. */
+    Chunk load(String key) {
+        Path file = directory.resolve(key + ".hbc");
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return ChunkSerializer.map(file);
+        } catch (IOException e) {
+            return null; // Arquivo velho ou corrompido: recompila e sobrescreve
+        }
+    }
+
+    /**
+     * Grava o chunk no cache. Escreve num arquivo temporário e depois move,
+     * para que outro processo nunca leia um .hbc pela metade.
+     */
+    void store(String key, Chunk chunk) {
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    ChunkSerializer.write(chunk, out);
+                }
+                Files.move(temp, directory.resolve(key + ".hbc"),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // Cache é só uma otimização: sem permissão de escrita, segue sem ele
+        }
+    }
+}
@@ -0,0 +1,69 @@
+// Arquivo: Diagnostics.java
+package main.java.org.cmt.compilers;
+
+import main.java.org.cmt.compilers.lexico.Token;
+import main.java.org.cmt.compilers.lexico.TokenType;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contexto de diagnósticos de uma compilação (ou de uma execução na VM).
+ *
+ * Cada fase recebe o contexto explicitamente e reporta os erros nele, em
+ * vez de escrever num estado estático compartilhado. Assim duas compilações
+ * ao mesmo tempo (em threads diferentes) não misturam os seus erros.
+ *
+ * Um contexto pertence a uma única compilação/execução e não é thread-safe.
+ * As mensagens ficam guardadas e, se houver um `echo`, também são impressas
+ * nele à medida que chegam (o driver usa System.err).
+ */
+public class Diagnostics {
+
+    private final PrintStream echo;
+    private final List<String> messages = new ArrayList<>();
+
+    /** Contexto que só guarda as mensagens, sem imprimir. */
+    public Diagnostics() {
+        this(null);
+    }
+
+    /** Contexto que guarda as mensagens e também as imprime em `echo`. */
+    public Diagnostics(PrintStream echo) {
+        this.echo = echo;
+    }
+
+    // Erro com número de linha e lexema (quando disponível)
+    public void error(Token token, String message) {
+        if (token.type == TokenType.EndOfFile) {
+            report(token.line, token.column, " no final", message);
+        } else {
+            report(token.line, token.column, " em '" + token.lexeme + "'", message);
+        }
+    }
+
+    public void error(int line, int column, String message) {
+        report(line, column, "", message);
+    }
+
+    public void error(int line, String message) {
+        report(line, 0, "", message);
+    }
+
+    private void report(int line, int column, String where, String message) {
+        String formatted = "[linha " + line + ":" + column + "] Erro" + where + ": " + message;
+        messages.add(formatted);
+        if (echo != null) echo.println(formatted);
+    }
+
+    /** true se alguma fase reportou erro neste contexto. */
+    public boolean hadError() {
+        return !messages.isEmpty();
+    }
+
+    /** As mensagens reportadas, na ordem em que chegaram. */
+    public List<String> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+}
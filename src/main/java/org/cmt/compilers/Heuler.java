@@ -4,20 +4,25 @@ package main.java.org.cmt.compilers;
 import main.java.org.cmt.compilers.lexico.Lexer;
 import main.java.org.cmt.compilers.lexico.TokenStream;
 import main.java.org.cmt.compilers.lexico.Token;
-import main.java.org.cmt.compilers.lexico.TokenType;
 import main.java.org.cmt.compilers.sintatico.Parser;
 import main.java.org.cmt.compilers.sintatico.Stmt;
 import main.java.org.cmt.compilers.AstPrinter;
+import main.java.org.cmt.compilers.bytecode.ChunkSerializer;
+import main.java.org.cmt.compilers.bytecode.CompiledProgram;
 import main.java.org.cmt.compilers.bytecode.Debug;
+import main.java.org.cmt.compilers.bytecode.DispatchEngine;
+import main.java.org.cmt.compilers.bytecode.PeepholeOptimizer;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.util.List;
 import main.java.org.cmt.compilers.bytecode.Compiler;
 import main.java.org.cmt.compilers.bytecode.VM;
 import main.java.org.cmt.compilers.bytecode.Chunk;
 import main.java.org.cmt.compilers.sintatico.Resolver;
+import main.java.org.cmt.compilers.otimizacao.ConstantFolder;
 
 /**
  * Ponto de entrada do programa. Coordena as três fases simples demonstradas
@@ -26,84 +31,140 @@ import main.java.org.cmt.compilers.sintatico.Resolver;
  * 2) Análise sintática (parser -> AST)
  * 3) Impressão/visualização da AST (AstPrinter)
  *
- * Também contém um mecanismo simples de report de erros (linha + mensagem).
+ * Os erros de cada compilação/execução vão para um {@link Diagnostics}
+ * próprio, passado explicitamente a cada fase.
  */
 public class Heuler {
 
-    static boolean hadError = false;
-    static VM vm = new VM(); // Crie a VM uma vez
+    // Engine de despacho das VMs, escolhido com -Dheuler.dispatch=switch|table
+    // (para comparar o desempenho dos dois). Cada execução cria a sua VM.
+    static DispatchEngine engine = DispatchEngine.fromName(System.getProperty("heuler.dispatch"));
+    // Nível de otimização (-O0, -O1, -O2 na linha de comando):
+    // 0 = nenhuma; 1 = dobragem de constantes na AST; 2 = 1 + peephole no bytecode.
+    static int optimizationLevel = 1;
+    // Códigos de saída (como os de sysexits.h): dados inválidos e falha de leitura
+    private static final int EXIT_DATA_ERROR = 65;
+    private static final int EXIT_IO_ERROR = 74;
 
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) {
 
         // Se um caminho de arquivo for fornecido, usa-o; caso contrário usa o recurso de teste padrão.
-        if (args != null && args.length > 0) {
-            runFile(args[0]);
-        } else {
-            runFile("src/main/recursos/testeFibo.heuler");
+        String path = "src/main/recursos/testeFibo.heuler";
+        if (args != null) {
+            for (String arg : args) {
+                if (arg.matches("-O[0-2]")) {
+                    optimizationLevel = arg.charAt(2) - '0';
+                } else {
+                    path = arg;
+                }
+            }
         }
+        runFile(path);
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(65);
+    private static void runFile(String path) {
+        Diagnostics diagnostics = new Diagnostics(System.err);
+
+        // Bytecode já compilado: mapeia o arquivo e executa sem recompilar
+        if (path.endsWith(".hbc")) {
+            Chunk chunk;
+            try {
+                chunk = ChunkSerializer.map(Paths.get(path));
+            } catch (ChunkSerializer.FormatError e) {
+                diagnostics.error(0, "'" + path + "' não é bytecode Heuler válido: " + e.getMessage());
+                System.exit(EXIT_DATA_ERROR);
+                return;
+            } catch (IOException e) {
+                readError(diagnostics, path, e);
+                System.exit(EXIT_IO_ERROR);
+                return;
+            }
+            execute(chunk, diagnostics, false);
+            if (diagnostics.hadError()) System.exit(EXIT_DATA_ERROR);
+            return;
+        }
+
+        String source;
+        try {
+            source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+        } catch (IOException e) {
+            readError(diagnostics, path, e);
+            System.exit(EXIT_IO_ERROR);
+            return;
+        }
+
+        // Se o fonte não mudou desde a última compilação, carrega o .hbc
+        CompileCache cache = CompileCache.fromSystemProperties();
+        String key = cache == null ? null : CompileCache.key(source, optimizationLevel);
+        Chunk chunk = cache == null ? null : cache.load(key);
+        boolean compiled = chunk == null;
+        if (compiled) {
+            chunk = compile(source, optimizationLevel, diagnostics);
+            if (chunk == null) {
+                if (diagnostics.hadError()) System.exit(EXIT_DATA_ERROR);
+                return;
+            }
+            if (cache != null) cache.store(key, chunk);
+        }
+        execute(chunk, diagnostics, compiled);
+        if (diagnostics.hadError()) System.exit(EXIT_DATA_ERROR);
+    }
+
+    private static void readError(Diagnostics diagnostics, String path, IOException e) {
+        String reason = e instanceof NoSuchFileException ? "arquivo não encontrado" : e.getMessage();
+        diagnostics.error(0, "Não foi possível ler '" + path + "': " + reason);
+    }
+
+    // O disassembly só é impresso para o que acabou de ser compilado: num
+    // chunk mapeado (.hbc ou cache) ele leria o código inteiro e decodificaria
+    // todas as strings antes da primeira instrução, desfazendo a leitura sob demanda
+    private static void execute(Chunk chunk, Diagnostics diagnostics, boolean disassemble) {
+        CompiledProgram program = CompiledProgram.of(chunk);
+        if (disassemble) Debug.disassembleChunk(program.getChunk(), "Código Compilado");
+        new VM(engine, diagnostics).interpret(program);
     }
 
     /**
-     * Fluxo principal: tokeniza, parseia e imprime a AST.
+     * Fluxo principal: tokeniza, parseia, resolve, otimiza e compila.
+     * Retorna o chunk finalizado, ou null se alguma fase reportou erro em
+     * `diagnostics`. Não usa estado estático: várias threads podem compilar
+     * ao mesmo tempo, cada uma com o seu contexto de diagnósticos.
      */
-    private static void run(String source) {
+    public static Chunk compile(String source, int optimizationLevel, Diagnostics diagnostics) {
         // Fase 1: Análise Léxica (Scanner)
-        Lexer lexer = new Lexer();
+        Lexer lexer = new Lexer(diagnostics);
         TokenStream tokenStream = lexer.scanTokens(source);
         List<Token> tokens = tokenStream.getTokens();
-        if (hadError) return;
+        if (diagnostics.hadError()) return null;
 
         // Fase 2: Análise Sintática (Parser)
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(tokens, diagnostics);
         List<Stmt> statements = parser.parse();
-        if (hadError) return;
+        if (diagnostics.hadError()) return null;
 
         // --- NOVA FASE 3: Análise Semântica (Resolver) ---
-        Resolver resolver = new Resolver();
+        Resolver resolver = new Resolver(diagnostics);
         resolver.resolve(statements);
 
         // Se o resolver encontrou erros (ex: var a = a;), paramos aqui.
-        if (hadError) return;
+        if (diagnostics.hadError()) return null;
+
+        // Fase 3.5: Otimização da AST (dobragem de constantes)
+        if (optimizationLevel >= 1) {
+            statements = new ConstantFolder().fold(statements);
+        }
 
         // Fase 4: Compilação (AST -> Bytecode)
-        Compiler compiler = new Compiler(vm);
+        Compiler compiler = new Compiler(diagnostics);
         boolean success = compiler.compile(statements);
-        if (!success) return;
+        if (!success) return null;
 
-        // Fase 5: Execução (VM)
+        // Fase 4.5: Otimização do bytecode (peephole)
         Chunk chunk = compiler.getCompiledChunk();
-        Debug.disassembleChunk(chunk, "Código Compilado");
-        vm.interpret(chunk);
-    }
-
-
-    // Sistema de notificação de erros: fornece mensagens com número de linha
-    // e lexema (quando disponível). Marca `hadError` para controle externo.
-    public static void error(Token token, String message) {
-        if (token.type == TokenType.EndOfFile) {
-            report(token.line, token.column, " no final", message);
-        } else {
-            report(token.line, token.column, " em '" + token.lexeme + "'", message);
+        if (optimizationLevel >= 2) {
+            PeepholeOptimizer.optimize(chunk);
         }
+        return chunk;
     }
-
-    public static void error(int line, int column, String message) {
-        report(line, column, "", message);
-    }
-
-    public static void error(int line, String message) {
-        report(line, 0, "", message);
-    }
-
-    private static void report(int line, int column, String where, String message) {
-        System.err.println("[linha " + line + ":" + column + "] Erro" + where + ": " + message);
-        hadError = true;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package main.java.org.cmt.compilers.bytecode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sink padrão: codifica a saída num buffer de bytes próprio e só escreve
+ * no OutputStream quando o buffer enche ou em flush() (a VM chama no fim
+ * do script e antes de reportar um erro, para manter a ordem com stderr).
+ *
+ * Números (via ValueFormatter), booleanos, nil e strings ASCII são escritos
+ * byte a byte no buffer, sem criar String nem byte[] intermediários.
+ */
+public final class BufferedOutputSink implements OutputSink {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final Charset charset;
+    private final boolean asciiCompatible; // ASCII vira os mesmos bytes neste charset?
+    private final byte[] lineSeparator;
+    private final byte[] trueBytes;
+    private final byte[] falseBytes;
+    private final byte[] nilBytes;
+    private final byte[] buffer;
+    private int count;
+
+    /** Sink sobre `out` com o charset padrão da plataforma (o mesmo do System.out). */
+    public BufferedOutputSink(OutputStream out) {
+        this(out, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferedOutputSink(OutputStream out, Charset charset, int bufferSize) {
+        this.out = out;
+        this.charset = charset;
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.trueBytes = "true".getBytes(charset);
+        this.falseBytes = "false".getBytes(charset);
+        this.nilBytes = "null".getBytes(charset);
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+    }
+
+    @Override
+    public void printNumber(double value) {
+        if (asciiCompatible) {
+            // O formatador escreve os dígitos (ASCII) direto no buffer
+            ensureRoom(ValueFormatter.MAX_NUMBER_LENGTH + lineSeparator.length);
+            count = ValueFormatter.writeNumber(value, buffer, count);
+            writeBytes(lineSeparator);
+            return;
+        }
+        printString(ValueFormatter.formatNumber(value));
+    }
+
+    @Override
+    public void printBoolean(boolean value) {
+        writeBytes(value ? trueBytes : falseBytes);
+        writeBytes(lineSeparator);
+    }
+
+    @Override
+    public void printNil() {
+        writeBytes(nilBytes);
+        writeBytes(lineSeparator);
+    }
+
+    @Override
+    public void printString(String value) {
+        int length = value.length();
+        if (asciiCompatible && length + lineSeparator.length <= buffer.length) {
+            ensureRoom(length + lineSeparator.length);
+            int start = count;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    count = start; // Não é ASCII: desfaz e codifica pelo charset
+                    writeBytes(value.getBytes(charset));
+                    writeBytes(lineSeparator);
+                    return;
+                }
+                buffer[count++] = (byte) c;
+            }
+            writeBytes(lineSeparator);
+            return;
+        }
+        writeBytes(value.getBytes(charset));
+        writeBytes(lineSeparator);
+    }
+
+    @Override
+    public void flush() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        if (bytes.length > buffer.length) {
+            // Maior que o buffer inteiro: escreve direto no stream
+            flushBuffer();
+            write(bytes, bytes.length);
+            return;
+        }
+        ensureRoom(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (count + bytes > buffer.length) flushBuffer();
+    }
+
+    private void flushBuffer() {
+        if (count > 0) {
+            write(buffer, count);
+            count = 0;
+        }
+    }
+
+    private void write(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
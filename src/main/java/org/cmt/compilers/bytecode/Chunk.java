@@ -1,22 +1,94 @@
 package main.java.org.cmt.compilers.bytecode;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Um "Chunk" armazena o bytecode compilado.
  * Contém a sequência de instruções (Opcodes) e a "tabela de constantes"
  * para os literais usados pelo código.
+ *
+ * O bytecode fica num array primitivo (byte[]) que cresce conforme a
+ * emissão; `count` indica quantos bytes são válidos. Depois de `finish()`
+ * o array é ajustado ao tamanho exato e o chunk deixa de aceitar escrita,
+ * servindo de visão somente-leitura para a VM. Só o otimizador peephole
+ * ainda troca o código de um chunk finalizado, e só até ele virar um
+ * CompiledProgram (que o congela, ver freeze()).
+ *
+ * Fora do pacote o chunk só é lido item a item (getByte, getNumber,
+ * getString, ...); os arrays internos (getCode, getNumbers, getStrings)
+ * ficam restritos ao pacote, porque são entregues sem cópia à VM.
+ *
+ * As linhas do código-fonte são guardadas em "run-length": cada entrada
+ * da tabela diz em que offset começa uma sequência de bytes que vem da
+ * mesma linha. Como o Compilador emite muitos bytes seguidos para a mesma
+ * linha, a tabela fica com poucas entradas em vez de um int por byte.
+ *
+ * A tabela de constantes é dividida em dois "pools" tipados, sem repetição:
+ * - números (double[]), deduplicados pelo padrão de bits do double;
+ * - strings literais, deduplicadas pelo valor.
+ * Assim, usar o mesmo literal mil vezes ocupa uma única entrada.
+ *
+ * As variáveis globais são resolvidas em tempo de compilação para um
+ * "slot" (índice inteiro). O chunk guarda só a tabela slot -> nome, usada
+ * para dimensionar o array de globais da VM e para as mensagens de erro.
  */
 public class Chunk {
 
-    private final List<Byte> code;       // O array dinâmico de instruções (bytecode)
-    private final List<Object> constants;  // A tabela de constantes
-    private final List<Integer> lines;     // Mapeia o bytecode para as linhas do código-fonte
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_LINE_RUNS = 8;
+    private static final int INITIAL_POOL_CAPACITY = 8;
+
+    private byte[] code;                   // O array dinâmico de instruções (bytecode)
+    private int count;                     // Quantos bytes de `code` estão em uso
+    private int[] lineStarts;              // Offset do primeiro byte de cada sequência (crescente)
+    private int[] lineNumbers;             // Linha do código-fonte de cada sequência
+    private int lineRunCount;              // Quantas sequências estão em uso
+    private double[] numbers;              // Pool de constantes numéricas
+    private int numberCount;
+    private String[] strings;              // Pool de constantes string (literais)
+    private int stringCount;
+    private String[] globalNames;          // slot -> nome da variável global
+    private int globalCount;
+    private Map<Long, Integer> numberIndex;   // bits do double -> índice (só durante a compilação)
+    private Map<String, Integer> stringIndex; // valor -> índice (só durante a compilação)
+    private Map<String, Integer> globalSlots; // nome -> slot (só durante a compilação)
+    private boolean finished;              // true depois de finish(): não aceita mais escrita
+    private boolean frozen;                // true depois de virar um CompiledProgram: nem replaceCode
 
     public Chunk() {
-        this.code = new ArrayList<>();
-        this.constants = new ArrayList<>();
-        this.lines = new ArrayList<>();
+        this.code = new byte[INITIAL_CAPACITY];
+        this.lineStarts = new int[INITIAL_LINE_RUNS];
+        this.lineNumbers = new int[INITIAL_LINE_RUNS];
+        this.count = 0;
+        this.numbers = new double[INITIAL_POOL_CAPACITY];
+        this.strings = new String[INITIAL_POOL_CAPACITY];
+        this.numberIndex = new HashMap<>();
+        this.stringIndex = new HashMap<>();
+        this.globalNames = new String[INITIAL_POOL_CAPACITY];
+        this.globalSlots = new HashMap<>();
+    }
+
+    /**
+     * Monta um chunk já finalizado a partir das suas partes (usado pelo
+     * MappedChunk, que sobrescreve as leituras). Os arrays passam a
+     * pertencer ao chunk.
+     */
+    Chunk(byte[] code, int[] lineStarts, int[] lineNumbers,
+          double[] numbers, String[] strings, String[] globalNames) {
+        this.code = code;
+        this.count = code.length;
+        this.lineStarts = lineStarts;
+        this.lineNumbers = lineNumbers;
+        this.lineRunCount = lineStarts.length;
+        this.numbers = numbers;
+        this.numberCount = numbers.length;
+        this.strings = strings;
+        this.stringCount = strings.length;
+        this.globalNames = globalNames;
+        this.globalCount = globalNames.length;
+        this.finished = true;
     }
 
     /**
@@ -24,33 +96,303 @@ public class Chunk {
      * Também armazena a linha do código-fonte correspondente.
      */
     public void write(byte b, int line) {
-        this.code.add(b);
-        this.lines.add(line);
+        ensureWritable();
+        if (count == code.length) {
+            // Dobra a capacidade (crescimento amortizado, como num ArrayList)
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[count] = b;
+        addLine(count, line);
+        count++;
+    }
+
+    /**
+     * Registra a linha do byte em `offset`. Só cria uma nova sequência
+     * quando a linha muda em relação ao byte anterior.
+     */
+    private void addLine(int offset, int line) {
+        if (lineRunCount > 0 && lineNumbers[lineRunCount - 1] == line) {
+            return; // Continua a sequência atual
+        }
+        if (lineRunCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineRunCount * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, lineRunCount * 2);
+        }
+        lineStarts[lineRunCount] = offset;
+        lineNumbers[lineRunCount] = line;
+        lineRunCount++;
     }
 
     /**
-     * Adiciona um valor (ex: número, string) à tabela de constantes.
-     * Retorna o índice onde o valor foi adicionado, para que a
-     * instrução OP_CONSTANT possa referenciá-lo.
+     * Reescreve um byte já emitido (usado para remendar os saltos).
+     */
+    public void patch(int offset, byte b) {
+        ensureWritable();
+        if (offset < 0 || offset >= count) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " fora do chunk (tamanho " + count + ")");
+        }
+        code[offset] = b;
+    }
+
+    /**
+     * Adiciona um número ao pool numérico, reaproveitando a entrada se o
+     * mesmo valor (mesmo padrão de bits) já existir.
+     * Comparar bits distingue 0.0 de -0.0 e trata todos os NaN iguais
+     * como a mesma constante.
      *
-     * @return O índice da constante.
+     * @return O índice da constante (operando de OP_CONSTANT).
      */
-    public int addConstant(Object value) {
-        this.constants.add(value);
-        return this.constants.size() - 1; // Retorna o índice do item recém-adicionado
+    public int addNumber(double value) {
+        ensureWritable();
+        Long key = Double.doubleToRawLongBits(value);
+        Integer existing = numberIndex.get(key);
+        if (existing != null) return existing;
+
+        if (numberCount == numbers.length) {
+            numbers = Arrays.copyOf(numbers, numberCount * 2);
+        }
+        numbers[numberCount] = value;
+        numberIndex.put(key, numberCount);
+        return numberCount++;
+    }
+
+    /**
+     * Adiciona uma string (literal ou nome de variável) ao pool de strings,
+     * reaproveitando a entrada se o mesmo texto já existir.
+     *
+     * @return O índice da constante (operando de OP_STRING).
+     */
+    public int addString(String value) {
+        ensureWritable();
+        Integer existing = stringIndex.get(value);
+        if (existing != null) return existing;
+
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        }
+        strings[stringCount] = value;
+        stringIndex.put(value, stringCount);
+        return stringCount++;
+    }
+
+    /**
+     * Retorna o slot da variável global `name`, criando um novo slot na
+     * primeira vez que o nome aparece. É o operando das instruções
+     * OP_DEFINE_GLOBAL / OP_GET_GLOBAL / OP_SET_GLOBAL.
+     */
+    public int addGlobal(String name) {
+        ensureWritable();
+        Integer existing = globalSlots.get(name);
+        if (existing != null) return existing;
+
+        if (globalCount == globalNames.length) {
+            globalNames = Arrays.copyOf(globalNames, globalCount * 2);
+        }
+        globalNames[globalCount] = name;
+        globalSlots.put(name, globalCount);
+        return globalCount++;
+    }
+
+    /**
+     * Finaliza o chunk: ajusta os arrays ao tamanho exato e impede novas
+     * escritas. Chamado pelo Compilador quando termina de emitir código.
+     */
+    public void finish() {
+        if (finished) return;
+        if (code.length != count) {
+            code = Arrays.copyOf(code, count);
+        }
+        if (lineStarts.length != lineRunCount) {
+            lineStarts = Arrays.copyOf(lineStarts, lineRunCount);
+            lineNumbers = Arrays.copyOf(lineNumbers, lineRunCount);
+        }
+        numbers = Arrays.copyOf(numbers, numberCount);
+        strings = Arrays.copyOf(strings, stringCount);
+        globalNames = Arrays.copyOf(globalNames, globalCount);
+        // Os índices de deduplicação só servem durante a emissão
+        numberIndex = null;
+        stringIndex = null;
+        globalSlots = null;
+        finished = true;
+    }
+
+    /**
+     * Troca o bytecode de um chunk já finalizado (usado pelo otimizador
+     * peephole). `lines[i]` é a linha do byte `i` do novo código; a tabela
+     * run-length é reconstruída a partir dela. Os pools não mudam.
+     */
+    void replaceCode(byte[] newCode, int[] lines) {
+        ensureFinished();
+        ensureNotFrozen();
+        code = newCode;
+        count = newCode.length;
+        lineStarts = new int[INITIAL_LINE_RUNS];
+        lineNumbers = new int[INITIAL_LINE_RUNS];
+        lineRunCount = 0;
+        for (int i = 0; i < count; i++) {
+            addLine(i, lines[i]);
+        }
+        lineStarts = Arrays.copyOf(lineStarts, lineRunCount);
+        lineNumbers = Arrays.copyOf(lineNumbers, lineRunCount);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Congela o chunk finalizado: o código e a tabela de linhas não mudam
+     * mais, nem pelo otimizador. Chamado por CompiledProgram.of, que guarda
+     * referências diretas aos arrays e as compartilha entre as VMs.
+     */
+    void freeze() {
+        ensureFinished();
+        frozen = true;
+    }
+
+    void ensureNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Chunk já em uso por um CompiledProgram: o código não pode mais mudar.");
+        }
+    }
+
+    private void ensureWritable() {
+        if (finished) {
+            throw new IllegalStateException("Chunk já finalizado: não aceita mais escrita.");
+        }
+    }
+
+    private void ensureFinished() {
+        if (!finished) {
+            throw new IllegalStateException("Chunk ainda em construção: chame finish() antes de executar.");
+        }
     }
 
     // --- Getters que a VM usará ---
 
-    public List<Byte> getCode() {
+    /** Quantidade de bytes de código emitidos até agora. */
+    public int count() {
+        return count;
+    }
+
+    /** Lê um byte do código (usado pelo Debug e pelos remendos do Compilador). */
+    public byte getByte(int offset) {
+        if (offset < 0 || offset >= count) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " fora do chunk (tamanho " + count + ")");
+        }
+        return code[offset];
+    }
+
+    /**
+     * Retorna o array de bytecode finalizado, com tamanho exato.
+     * A VM lê diretamente deste array; por isso o chunk precisa estar
+     * finalizado (não há cópia defensiva, e o método é só do pacote).
+     */
+    byte[] getCode() {
+        ensureFinished();
         return code;
     }
 
-    public List<Object> getConstants() {
-        return constants;
+    public int numberCount() {
+        return numberCount;
+    }
+
+    public int stringCount() {
+        return stringCount;
+    }
+
+    /** Quantidade de slots de globais usados pelo código deste chunk. */
+    public int globalCount() {
+        return globalCount;
+    }
+
+    public String getGlobalName(int slot) {
+        return globalNames[slot];
+    }
+
+    public double getNumber(int index) {
+        return numbers[index];
+    }
+
+    public String getString(int index) {
+        return strings[index];
+    }
+
+    /** Pool numérico finalizado (a VM guarda a referência para ler sem indireções). */
+    double[] getNumbers() {
+        ensureFinished();
+        return numbers;
+    }
+
+    /** Pool de strings finalizado (o próprio array, sem cópia). */
+    String[] getStrings() {
+        ensureFinished();
+        return strings;
+    }
+
+    // --- Usado pela VM (sobrescrito por MappedChunk) ---
+
+    /**
+     * Bytecode que a VM indexa diretamente, ou null se ela deve ler de
+     * codeBuffer() (como num MappedChunk, que não copia o código do arquivo).
+     */
+    byte[] codeCache() {
+        return getCode();
+    }
+
+    /** Bytecode para a VM ler quando codeCache() é null (somente leitura). */
+    ByteBuffer codeBuffer() {
+        return null;
+    }
+
+    /**
+     * Array de strings do CompiledProgram, que a VM consulta antes de pedir
+     * a decodificação. Aqui é o próprio pool, já pronto e sem textos
+     * repetidos; num MappedChunk é um array novo e vazio, que o programa
+     * preenche no primeiro uso de cada string.
+     */
+    String[] stringCache() {
+        return getStrings();
+    }
+
+    /**
+     * Pool numérico que a VM indexa diretamente, ou null se os números
+     * devem ser lidos um a um por getNumber (como num MappedChunk, que os
+     * lê do arquivo mapeado em vez de copiar o pool inteiro).
+     */
+    double[] numberCache() {
+        return getNumbers();
+    }
+
+    // --- Tabela de linhas em "run-length" (lida pelo escritor de .hbc) ---
+
+    int lineRunCount() {
+        return lineRunCount;
     }
 
+    int lineRunStart(int run) {
+        return lineStarts[run];
+    }
+
+    int lineRunNumber(int run) {
+        return lineNumbers[run];
+    }
+
+    /**
+     * Retorna a linha do código-fonte do byte em `offset`.
+     * Busca binária pela última sequência que começa em (ou antes de) `offset`.
+     */
     public int getLine(int offset) {
-        return lines.get(offset);
+        int low = 0;
+        int high = lineRunCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return lineRunCount == 0 ? 0 : lineNumbers[low];
     }
 }
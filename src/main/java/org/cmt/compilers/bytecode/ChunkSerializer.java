@@ -0,0 +1,123 @@
+package main.java.org.cmt.compilers.bytecode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Formato binário versionado (.hbc) para um Chunk finalizado.
+ *
+ * Layout (big-endian, como o ByteBuffer padrão):
+ *   magic       4 bytes  'H' 'B' 'C' 0
+ *   versão      u16      FORMAT_VERSION  (+ u16 reservado)
+ *   código      i32 tamanho + bytes
+ *   linhas      i32 sequências n + i32 offset inicial[n] + i32 linha[n]
+ *   números     i32 quantidade + alinhamento a 8 + i64 (bits do double)[]
+ *   strings     tabela de texto (ver abaixo)
+ *   globais     tabela de texto
+ *
+ * Tabela de texto: i32 quantidade n + i32 offset[n + 1] + bytes UTF-8; o
+ * texto `i` ocupa os bytes [offset[i], offset[i + 1]). Com os offsets, o
+ * leitor acha qualquer entrada sem percorrer as anteriores, e por isso o
+ * arquivo pode ser mapeado e decodificado sob demanda (ver MappedChunk).
+ *
+ * Qualquer mudança no conjunto de opcodes ou no layout deve incrementar
+ * FORMAT_VERSION: arquivos de outra versão são recusados pelo leitor.
+ * Já uma mudança só no código gerado (mesmo formato, outros bytes para o
+ * mesmo fonte) incrementa Compiler.CODEGEN_VERSION, que invalida o cache.
+ */
+public final class ChunkSerializer {
+
+    static final byte[] MAGIC = { 'H', 'B', 'C', 0 };
+    public static final int FORMAT_VERSION = 3;
+
+    private ChunkSerializer() {}
+
+    /** Grava um chunk finalizado no formato .hbc. */
+    public static void write(Chunk chunk, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeShort(0);
+
+        byte[] code = chunk.getCode();
+        out.writeInt(code.length);
+        out.write(code);
+
+        int runs = chunk.lineRunCount();
+        out.writeInt(runs);
+        for (int i = 0; i < runs; i++) out.writeInt(chunk.lineRunStart(i));
+        for (int i = 0; i < runs; i++) out.writeInt(chunk.lineRunNumber(i));
+
+        double[] numbers = chunk.getNumbers();
+        out.writeInt(numbers.length);
+        while (out.size() % Double.BYTES != 0) out.writeByte(0);
+        for (double number : numbers) {
+            // Bits crus: preserva -0.0 e o NaN exatamente como compilados
+            out.writeLong(Double.doubleToRawLongBits(number));
+        }
+
+        writeTexts(out, chunk.getStrings());
+        String[] globalNames = new String[chunk.globalCount()];
+        for (int i = 0; i < globalNames.length; i++) globalNames[i] = chunk.getGlobalName(i);
+        writeTexts(out, globalNames);
+        out.flush();
+    }
+
+    /**
+     * Mapeia um arquivo .hbc na memória (somente leitura) e devolve um chunk
+     * que lê direto do mapeamento. Processos que mapeiam o mesmo arquivo
+     * compartilham as páginas no cache do sistema operacional.
+     * Lança FormatError se o conteúdo não for um .hbc válido.
+     */
+    public static Chunk map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // O mapeamento continua válido depois de fechar o canal
+            return new MappedChunk(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Lê um chunk no formato .hbc de um stream qualquer (o conteúdo é
+     * copiado para a heap). Lança FormatError se os bytes não forem .hbc,
+     * forem de outra versão, estiverem truncados ou não passarem na validação.
+     */
+    public static Chunk read(InputStream stream) throws IOException {
+        return new MappedChunk(ByteBuffer.wrap(stream.readAllBytes()));
+    }
+
+    /**
+     * O conteúdo lido não é um .hbc válido: outro formato, outra versão,
+     * arquivo truncado ou código que não passa na validação. Os demais
+     * IOException de map/read são falhas de leitura do arquivo.
+     */
+    public static final class FormatError extends IOException {
+        FormatError(String message) {
+            super(message);
+        }
+
+        FormatError(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static void writeTexts(DataOutputStream out, String[] texts) throws IOException {
+        byte[][] encoded = new byte[texts.length][];
+        for (int i = 0; i < texts.length; i++) encoded[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(texts.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] bytes : encoded) {
+            offset += bytes.length;
+            out.writeInt(offset);
+        }
+        for (byte[] bytes : encoded) out.write(bytes);
+    }
+}
@@ -0,0 +1,213 @@
+package main.java.org.cmt.compilers.bytecode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Programa compilado, seguro para compartilhar entre threads.
+ *
+ * É o artefato "compile uma vez, execute muitas": qualquer número de VMs
+ * pode executar o mesmo programa ao mesmo tempo, cada uma com a sua pilha
+ * e as suas globais.
+ *
+ * O bytecode e o pool numérico são os do Chunk finalizado (que não muda
+ * mais), sem cópia; num chunk mapeado as VMs leem o código e os números
+ * direto do arquivo e não fazem quickening. O Chunk nunca é escrito: o
+ * quickening das VMs vai para uma única cópia do bytecode por programa,
+ * criada na primeira reescrita e usada por todas as VMs dali em diante. Uma reescrita troca um byte de
+ * opcode entre a forma genérica e a acelerada, que têm o mesmo efeito (a
+ * acelerada confere os tipos e volta à genérica), então uma VM que ainda
+ * veja o byte antigo continua correta; escrita de byte em array não rasga.
+ *
+ * As desotimizações são contadas por local (offset) numa tabela pequena,
+ * só com os locais que já desotimizaram, trocada inteira a cada registro.
+ *
+ * Cada texto do pool de strings é uma única instância em todas as VMs (a
+ * StringTable de cada execução parte delas). Num chunk mapeado as strings
+ * são decodificadas no primeiro uso, sob o lock do programa, e cada índice
+ * é publicado uma vez só; um texto repetido no pool (possível num .hbc
+ * escrito à mão) reusa a instância já decodificada.
+ */
+public final class CompiledProgram {
+
+    private final Chunk chunk;
+    private final byte[] code;         // Bytecode do chunk (nunca escrito), ou null se mapeado
+    private final ByteBuffer mappedCode; // Bytecode de um chunk mapeado (somente leitura)
+    private final double[] numbers;
+    private final String[] strings;    // Instâncias canônicas (null = ainda não decodificada)
+    private final Map<String, String> decoded = new HashMap<>(); // Textos já decodificados (sob o lock)
+    private volatile Map<String, String> constants; // Todos os textos do pool (criado no 1º uso)
+    private volatile byte[] quickened; // Cópia compartilhada reescrita pelo quickening
+    private volatile DeoptSites deopts = DeoptSites.EMPTY;
+
+    private CompiledProgram(Chunk chunk) {
+        this.chunk = chunk;
+        this.code = chunk.codeCache();
+        this.mappedCode = code == null ? chunk.codeBuffer() : null;
+        this.numbers = chunk.numberCache();
+        this.strings = chunk.stringCache();
+    }
+
+    /**
+     * Congela um chunk finalizado num programa executável. Depois disso o
+     * chunk não muda mais (nem pelo PeepholeOptimizer): o programa e as
+     * VMs leem os arrays dele sem cópia.
+     */
+    public static CompiledProgram of(Chunk chunk) {
+        if (!chunk.isFinished()) {
+            throw new IllegalStateException("Chunk ainda em construção: chame finish() antes de executar.");
+        }
+        chunk.freeze();
+        return new CompiledProgram(chunk);
+    }
+
+    /** O chunk de origem (para o Debug e a serialização em .hbc), já congelado. */
+    public Chunk getChunk() {
+        return chunk;
+    }
+
+    // --- Lido pela VM (nunca escrito) ---
+
+    /** Bytecode para começar uma execução: a cópia acelerada, se já existir (null se mapeado). */
+    byte[] code() {
+        byte[] current = quickened;
+        return current != null ? current : code;
+    }
+
+    /** Código mapeado para uma execução (cada VM lê pela sua própria visão do buffer). */
+    ByteBuffer mappedCode() {
+        return mappedCode == null ? null : mappedCode.duplicate();
+    }
+
+    /**
+     * A cópia do bytecode que o quickening reescreve (criada na primeira
+     * vez). Não existe num programa mapeado: code() é null e a VM não acelera.
+     */
+    byte[] quickenedCode() {
+        byte[] current = quickened;
+        if (current == null) {
+            synchronized (this) {
+                current = quickened;
+                if (current == null) {
+                    current = code.clone();
+                    quickened = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /** Quantas vezes a instrução em `site` voltou à forma genérica. */
+    int deoptCount(int site) {
+        return deopts.count(site);
+    }
+
+    synchronized void recordDeopt(int site) {
+        deopts = deopts.increment(site);
+    }
+
+    /** Pool numérico para indexar direto, ou null (chunk mapeado: use getNumber). */
+    double[] numbers() {
+        return numbers;
+    }
+
+    double getNumber(int index) {
+        return chunk.getNumber(index);
+    }
+
+    String[] strings() {
+        return strings;
+    }
+
+    String getString(int index) {
+        String value = strings[index];
+        return value != null ? value : decodeString(index);
+    }
+
+    // Primeiro uso de uma string de chunk mapeado: decodifica e publica a
+    // instância canônica do texto (a primeira decodificada com ele)
+    private synchronized String decodeString(int index) {
+        String value = strings[index];
+        if (value == null) {
+            value = chunk.getString(index);
+            String existing = decoded.putIfAbsent(value, value);
+            if (existing != null) value = existing;
+            strings[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Os textos do pool, cada um associado à sua instância canônica. Criado
+     * na primeira vez que uma VM interna uma string produzida (num chunk
+     * mapeado isso decodifica o pool inteiro) e nunca mais alterado.
+     */
+    Map<String, String> constants() {
+        Map<String, String> current = constants;
+        if (current == null) {
+            synchronized (this) {
+                current = constants;
+                if (current == null) {
+                    current = new HashMap<>();
+                    for (int i = 0; i < strings.length; i++) {
+                        String value = getString(i);
+                        current.putIfAbsent(value, value);
+                    }
+                    constants = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    String getGlobalName(int slot) {
+        return chunk.getGlobalName(slot);
+    }
+
+    int globalCount() {
+        return chunk.globalCount();
+    }
+
+    int getLine(int offset) {
+        return chunk.getLine(offset);
+    }
+
+    /** Contadores de desotimização dos locais que já desotimizaram (imutável). */
+    private static final class DeoptSites {
+        static final DeoptSites EMPTY = new DeoptSites(new int[0], new byte[0]);
+
+        private final int[] sites;   // Offsets em ordem crescente
+        private final byte[] counts;
+
+        private DeoptSites(int[] sites, byte[] counts) {
+            this.sites = sites;
+            this.counts = counts;
+        }
+
+        int count(int site) {
+            int index = Arrays.binarySearch(sites, site);
+            return index >= 0 ? counts[index] : 0;
+        }
+
+        DeoptSites increment(int site) {
+            int index = Arrays.binarySearch(sites, site);
+            if (index >= 0) {
+                byte[] newCounts = counts.clone();
+                if (newCounts[index] < Byte.MAX_VALUE) newCounts[index]++;
+                return new DeoptSites(sites, newCounts);
+            }
+            int insert = -index - 1;
+            int[] newSites = new int[sites.length + 1];
+            byte[] newCounts = new byte[counts.length + 1];
+            System.arraycopy(sites, 0, newSites, 0, insert);
+            System.arraycopy(counts, 0, newCounts, 0, insert);
+            newSites[insert] = site;
+            newCounts[insert] = 1;
+            System.arraycopy(sites, insert, newSites, insert + 1, sites.length - insert);
+            System.arraycopy(counts, insert, newCounts, insert + 1, counts.length - insert);
+            return new DeoptSites(newSites, newCounts);
+        }
+    }
+}
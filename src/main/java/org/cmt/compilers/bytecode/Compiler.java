@@ -1,50 +1,87 @@
 // Arquivo: Compiler.java
 package main.java.org.cmt.compilers.bytecode;
 
-import main.java.org.cmt.compilers.Heuler;
+import main.java.org.cmt.compilers.Diagnostics;
 import main.java.org.cmt.compilers.lexico.Token;
 import main.java.org.cmt.compilers.lexico.TokenType;
 import main.java.org.cmt.compilers.sintatico.Stmt;
 import main.java.org.cmt.compilers.sintatico.expressions.Expr;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * O Compilador.
  * Percorre a AST (árvore sintática) e emite o bytecode correspondente.
  * Implementa o padrão Visitor para traduzir cada nó da árvore.
+ *
+ * Cada expressão compilada devolve o seu tipo estático (quando conhecido),
+ * calculado a partir dos literais e das anotações `var int` / `var float`.
+ * Quando os dois operandos de uma operação são comprovadamente números, o
+ * Compilador emite a versão especializada (OP_ADD_NUM, OP_LESS_NUM, ...),
+ * que a VM executa sem verificar tipos; caso contrário usa o opcode genérico.
+ *
+ * Algumas formas frequentes da árvore são reconhecidas antes da emissão e
+ * viram superinstruções (uma só passagem pelo laço de despacho da VM):
+ * - `x = x + 1` / `x = x - 1` como comando (o `i++` do Parser) -> OP_INC_* / OP_DEC_*;
+ * - atribuição usada como comando -> OP_SET_LOCAL_POP / OP_SET_GLOBAL_POP;
+ * - comparação entre duas locais (`a < b`, `a >= b`, ...) -> OP_LESS[_EQUAL]_LOCAL_LOCAL.
  */
-public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+public class Compiler implements Expr.Visitor<Compiler.StaticType>, Stmt.Visitor<Void> {
 
+    /**
+     * Versão do bytecode gerado (Compiler, ConstantFolder e PeepholeOptimizer).
+     * Entra na chave do cache de compilação (CompileCache): incremente sempre
+     * que o código emitido para um mesmo fonte mudar, senão o cache continua
+     * servindo o bytecode antigo. Mudanças no conjunto de opcodes já trocam a
+     * chave sozinhas (a tabela de opcodes também entra nela).
+     */
+    public static final int CODEGEN_VERSION = 1;
+
+    /** Tipo conhecido em tempo de compilação para o valor de uma expressão. */
+    enum StaticType { NUMBER, STRING, BOOL, NIL, UNKNOWN }
 
+    private static final int MAX_LONG_INDEX = 0xFFFFFF; // Maior índice que cabe em 3 bytes
+    private static final int MAX_CONCAT = 0xFF;          // Maior quantidade de valores de um OP_CONCAT
 
     private Chunk compilingChunk;
-    private VM vm; // Precisamos da VM para o resultado
+    private final Diagnostics diagnostics; // Onde os erros de compilação são reportados
 
-    public Compiler(VM vm) {
-        this.vm = vm;
+    public Compiler(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
     }
+
     // Array para rastrear as locais ativas (simula a pilha)
     private Local[] locals = new Local[256];
     private int localCount = 0;
     private int scopeDepth = 0; // 0 = Global, > 0 = Local
+    // Tipo declarado das globais anotadas (var int/float); as demais ficam de fora
+    private final Map<String, StaticType> globalTypes = new HashMap<>();
 
     private static class Local {
         final Token name;
         final int depth; // Profundidade do escopo (0 = global, 1 = bloco, etc.)
+        final StaticType type; // Tipo declarado (UNKNOWN se não houver anotação numérica)
 
-        Local(Token name, int depth) {
+        Local(Token name, int depth, StaticType type) {
             this.name = name;
             this.depth = depth;
+            this.type = type;
         }
     }
     // 1. Adicionar uma local à lista do compilador
     private void addLocal(Token name) {
+        addLocal(name, StaticType.UNKNOWN);
+    }
+
+    private void addLocal(Token name, StaticType type) {
         if (localCount == 256) {
             // Erro: muitas variáveis locais (limitação simples)
             return;
         }
-        locals[localCount++] = new Local(name, scopeDepth);
+        locals[localCount++] = new Local(name, scopeDepth, type);
     }
 
     // 2. Tentar encontrar o índice de uma local (resolveLocal)
@@ -76,6 +113,8 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
             // No final, emitimos uma instrução de retorno para terminar a execução.
             emitReturn();
+            // Fecha o chunk: a partir daqui ele é só de leitura para a VM.
+            compilingChunk.finish();
             return true;
 
         } catch (CompileError error) {
@@ -97,9 +136,45 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
 
+    // Emite uma instrução com índice de constante: forma curta (1 byte) ou larga (3 bytes)
+    private void emitConstantInstruction(byte shortForm, byte longForm, int index) {
+        if (index <= 0xFF) {
+            emitByte(shortForm);
+            emitByte((byte) index);
+        } else if (index <= MAX_LONG_INDEX) {
+            emitByte(longForm);
+            emitByte((byte) ((index >> 16) & 0xff));
+            emitByte((byte) ((index >> 8) & 0xff));
+            emitByte((byte) (index & 0xff));
+        } else {
+            diagnostics.error(0, "Constantes demais num só chunk.");
+            throw new CompileError();
+        }
+    }
+
+    private void emitNumber(double value) {
+        emitConstantInstruction(OpCode.OP_CONSTANT, OpCode.OP_CONSTANT_LONG, currentChunk().addNumber(value));
+    }
+
+    private void emitString(String value) {
+        emitConstantInstruction(OpCode.OP_STRING, OpCode.OP_STRING_LONG, currentChunk().addString(value));
+    }
+
+    // Emite uma instrução de global com o slot resolvido em tempo de compilação (2 bytes)
+    private void emitGlobal(byte instruction, Token name) {
+        int slot = currentChunk().addGlobal(name.lexeme);
+        if (slot > 0xFFFF) {
+            diagnostics.error(name, "Variáveis globais demais num só chunk.");
+            throw new CompileError();
+        }
+        emitByte(instruction);
+        emitByte((byte) ((slot >> 8) & 0xff));
+        emitByte((byte) (slot & 0xff));
+    }
+
     private void emitReturn() {
-        emitByte((byte) OpCode.OP_NIL.ordinal()); // Coloca um 'nil' padrão na pilha
-        emitByte((byte) OpCode.OP_RETURN.ordinal());
+        emitByte(OpCode.OP_NIL); // Coloca um 'nil' padrão na pilha
+        emitByte(OpCode.OP_RETURN);
     }
     private void beginScope() {
         scopeDepth++;
@@ -111,22 +186,31 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // Descarta as variáveis que saíram de escopo
         // Emitimos OP_POP para cada variável que estava neste nível
         while (localCount > 0 && locals[localCount - 1].depth > scopeDepth) {
-            emitByte((byte)OpCode.OP_POP.ordinal());
+            emitByte(OpCode.OP_POP);
             localCount--;
         }
     }
     // Emite um salto para frente e retorna o índice do placeholder para ser remendado depois
-    private int emitJump(OpCode instruction) {
-        emitByte((byte)instruction.ordinal());
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
         emitByte((byte) 0xff); // Placeholder byte 1
         emitByte((byte) 0xff); // Placeholder byte 2
-        return currentChunk().getCode().size() - 2;
+        return currentChunk().count() - 2;
+    }
+
+    // Como emitJump, para instruções com o slot do iterador antes do salto (OP_FOR_PREP)
+    private int emitForJump(byte instruction, int slot) {
+        emitByte(instruction);
+        emitByte((byte) slot);
+        emitByte((byte) 0xff);
+        emitByte((byte) 0xff);
+        return currentChunk().count() - 2;
     }
 
     // Volta ao 'offset' e escreve a distância correta até o ponto atual
     private void patchJump(int offset) {
         // -2 para ajustar o próprio tamanho do offset do salto
-        int jump = currentChunk().getCode().size() - offset - 2;
+        int jump = currentChunk().count() - offset - 2;
 
         if (jump > 65535) {
             // Erro simples se o código for grande demais
@@ -134,15 +218,15 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         // Escreve os dois bytes do short
-        currentChunk().getCode().set(offset, (byte)((jump >> 8) & 0xff));
-        currentChunk().getCode().set(offset + 1, (byte)(jump & 0xff));
+        currentChunk().patch(offset, (byte)((jump >> 8) & 0xff));
+        currentChunk().patch(offset + 1, (byte)(jump & 0xff));
     }
 
-    // Emite um salto para trás (loop)
-    private void emitLoop(int loopStart) {
-        emitByte((byte) OpCode.OP_LOOP.ordinal());
+    // Emite um salto para trás (OP_LOOP ou um dos desvios condicionais OP_LOOP_IF_*)
+    private void emitLoop(byte instruction, int loopStart) {
+        emitByte(instruction);
 
-        int offset = currentChunk().getCode().size() - loopStart + 2;
+        int offset = currentChunk().count() - loopStart + 2;
         if (offset > 65535) throw new CompileError();
 
         emitByte((byte)((offset >> 8) & 0xff));
@@ -156,89 +240,240 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    // Método de despacho genérico
-    private void compile(Expr expr) {
-        expr.accept(this);
+    // Método de despacho genérico: devolve o tipo estático da expressão
+    private StaticType compile(Expr expr) {
+        return expr.accept(this);
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) {
+            // Atribuição como comando: o valor não é usado, então não fica na pilha
+            compileAssignStatement((Expr.Assign) stmt.expression);
+            return null;
+        }
         compile(stmt.expression);
-        emitByte((byte) OpCode.OP_POP.ordinal()); // Descarta o valor da expressão
+        emitByte(OpCode.OP_POP); // Descarta o valor da expressão
         return null;
     }
 
+    // Compila `nome = valor;` escolhendo a superinstrução adequada
+    private void compileAssignStatement(Expr.Assign expr) {
+        int arg = resolveLocal(expr.name);
+        int step = stepOf(expr);
+
+        if (step != 0) {
+            // x = x + 1 / x = x - 1: atualiza a variável no lugar
+            if (arg != -1) {
+                emitByte(step > 0 ? OpCode.OP_INC_LOCAL : OpCode.OP_DEC_LOCAL);
+                emitByte((byte) arg);
+            } else {
+                emitGlobal(step > 0 ? OpCode.OP_INC_GLOBAL : OpCode.OP_DEC_GLOBAL, expr.name);
+            }
+            return;
+        }
+
+        StaticType type = compile(expr.value);
+        if (arg != -1) {
+            checkAssignable(expr.name, locals[arg].type, type);
+            emitByte(OpCode.OP_SET_LOCAL_POP);
+            emitByte((byte) arg);
+        } else {
+            checkAssignable(expr.name, globalTypes.getOrDefault(expr.name.lexeme, StaticType.UNKNOWN), type);
+            emitGlobal(OpCode.OP_SET_GLOBAL_POP, expr.name);
+        }
+    }
+
+    // +1 se a atribuição é `x = x + 1`, -1 se é `x = x - 1`, 0 caso contrário.
+    // (É a forma que o Parser gera para `x++` e `x--`.)
+    private int stepOf(Expr.Assign expr) {
+        if (!(expr.value instanceof Expr.Binary)) return 0;
+        Expr.Binary binary = (Expr.Binary) expr.value;
+        if (!(binary.left instanceof Expr.Variable)
+                || !((Expr.Variable) binary.left).name.lexeme.equals(expr.name.lexeme)) return 0;
+        if (!(binary.right instanceof Expr.Literal)
+                || !Double.valueOf(1.0).equals(((Expr.Literal) binary.right).value)) return 0;
+        switch (binary.operator.type) {
+            case Plus:  return 1;
+            case Minus: return -1;
+            default:    return 0;
+        }
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         compile(stmt.expression);
-        emitByte((byte)OpCode.OP_PRINT.ordinal());
+        emitByte(OpCode.OP_PRINT);
         return null;
     }
 
     // --- Compilando Expressões (Expr.Visitor) ---
 
     @Override
-    public Void visitLiteralExpr(Expr.Literal expr) {
+    public StaticType visitLiteralExpr(Expr.Literal expr) {
         if (expr.value == null) {
-            emitByte((byte)OpCode.OP_NIL.ordinal());
+            emitByte(OpCode.OP_NIL);
+            return StaticType.NIL;
         } else if (Boolean.TRUE.equals(expr.value)) {
-            emitByte((byte)OpCode.OP_TRUE.ordinal());
+            emitByte(OpCode.OP_TRUE);
+            return StaticType.BOOL;
         } else if (Boolean.FALSE.equals(expr.value)) {
-            emitByte((byte)OpCode.OP_FALSE.ordinal());
+            emitByte(OpCode.OP_FALSE);
+            return StaticType.BOOL;
+        } else if (expr.value instanceof Double) {
+            // Números e strings vão para os pools de constantes (sem repetição)
+            emitNumber((Double) expr.value);
+            return StaticType.NUMBER;
         } else {
-            // Apenas números e strings vão para a tabela de constantes
-            int index = currentChunk().addConstant(expr.value);
-            emitByte((byte)OpCode.OP_CONSTANT.ordinal());
-            emitByte((byte)index);
+            emitString((String) expr.value);
+            return StaticType.STRING;
         }
-        return null;
     }
 
     @Override
-    public Void visitGroupingExpr(Expr.Grouping expr) {
-        compile(expr.expression); // Apenas compila a expressão interna
-        return null;
+    public StaticType visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression); // Apenas compila a expressão interna
     }
 
     @Override
-    public Void visitUnaryExpr(Expr.Unary expr) {
+    public StaticType visitUnaryExpr(Expr.Unary expr) {
         compile(expr.right); // Compila o operando primeiro
 
         // Emite a instrução unária
         switch (expr.operator.type) {
-            case Minus: emitByte((byte) OpCode.OP_NEGATE.ordinal()); break;
-            case Bang:  emitByte((byte) OpCode.OP_NOT.ordinal()); break;
-            // (Adicionaremos OP_NOT para '!' aqui)
+            // OP_NEGATE interrompe a execução se o operando não for número,
+            // então o resultado (quando existe) é sempre um número.
+            case Minus: emitByte(OpCode.OP_NEGATE); return StaticType.NUMBER;
+            case Bang:  emitByte(OpCode.OP_NOT); return StaticType.BOOL;
         }
-        return null;
+        return StaticType.UNKNOWN;
     }
 
 
     @Override
-    public Void visitBinaryExpr(Expr.Binary expr) {
+    public StaticType visitBinaryExpr(Expr.Binary expr) {
+        StaticType fused = compileLocalComparison(expr);
+        if (fused != null) return fused;
+        if (expr.operator.type == TokenType.Plus) return compileAddChain(expr);
+
         // Compila o operando esquerdo
-        compile(expr.left);
+        StaticType left = compile(expr.left);
         // Compila o operando direito
-        compile(expr.right);
+        StaticType right = compile(expr.right);
+
+        // Com os dois lados comprovadamente numéricos usamos os opcodes
+        // especializados, que não verificam tipos na VM.
+        boolean numeric = left == StaticType.NUMBER && right == StaticType.NUMBER;
 
         // Emite a instrução binária
         switch (expr.operator.type) {
-            case Plus:    emitByte((byte)OpCode.OP_ADD.ordinal()); break;
-            case Minus:   emitByte((byte)OpCode.OP_SUBTRACT.ordinal()); break;
-            case Star:    emitByte((byte)OpCode.OP_MULTIPLY.ordinal()); break;
-            case Slash:   emitByte((byte)OpCode.OP_DIVIDE.ordinal()); break;
+            case Minus:
+                emitByte(numeric ? OpCode.OP_SUBTRACT_NUM : OpCode.OP_SUBTRACT);
+                return numeric ? StaticType.NUMBER : StaticType.UNKNOWN;
+            case Star:
+                emitByte(numeric ? OpCode.OP_MULTIPLY_NUM : OpCode.OP_MULTIPLY);
+                return numeric ? StaticType.NUMBER : StaticType.UNKNOWN;
+            case Slash:
+                emitByte(numeric ? OpCode.OP_DIVIDE_NUM : OpCode.OP_DIVIDE);
+                return numeric ? StaticType.NUMBER : StaticType.UNKNOWN;
             // --- NOVOS OPERADORES ---
-            case EqualEqual:   emitByte((byte)OpCode.OP_EQUAL.ordinal()); break;
-            case Greater:      emitByte((byte)OpCode.OP_GREATER.ordinal()); break;
-            case Less:         emitByte((byte)OpCode.OP_LESS.ordinal()); break;
-            // Para >= usamos < e invertemos (not)
-            case GreaterEqual: emitByte((byte)OpCode.OP_LESS.ordinal()); emitByte((byte)OpCode.OP_NOT.ordinal()); break;
-            // Para <= usamos > e invertemos (not)
-            case LessEqual:    emitByte((byte)OpCode.OP_GREATER.ordinal()); emitByte((byte)OpCode.OP_NOT.ordinal()); break;
-            case BangEqual:    emitByte((byte)OpCode.OP_EQUAL.ordinal()); emitByte((byte)OpCode.OP_NOT.ordinal()); break;
+            case EqualEqual:
+                emitByte(OpCode.OP_EQUAL);
+                return StaticType.BOOL;
+            case BangEqual:
+                emitByte(OpCode.OP_NOT_EQUAL);
+                return StaticType.BOOL;
+            case Greater:
+                emitByte(numeric ? OpCode.OP_GREATER_NUM : OpCode.OP_GREATER);
+                return numeric ? StaticType.BOOL : StaticType.UNKNOWN;
+            case Less:
+                emitByte(numeric ? OpCode.OP_LESS_NUM : OpCode.OP_LESS);
+                return numeric ? StaticType.BOOL : StaticType.UNKNOWN;
+            // >= e <= têm opcodes próprios: !(a < b) não serve, pois com NaN daria true
+            case GreaterEqual:
+                emitByte(numeric ? OpCode.OP_GREATER_EQUAL_NUM : OpCode.OP_GREATER_EQUAL);
+                return numeric ? StaticType.BOOL : StaticType.UNKNOWN;
+            case LessEqual:
+                emitByte(numeric ? OpCode.OP_LESS_EQUAL_NUM : OpCode.OP_LESS_EQUAL);
+                return numeric ? StaticType.BOOL : StaticType.UNKNOWN;
         }
-        return null;
+        return StaticType.UNKNOWN;
+    }
+    /**
+     * Cadeia de somas `e1 + e2 + ... + en` (associativa à esquerda). Até o
+     * acumulado ser comprovadamente string, cada '+' é compilado sozinho;
+     * dali em diante todo '+' é concatenação, e os operandos restantes vão
+     * para um único OP_CONCAT (o acumulado mais eles), em vez de um OP_ADD
+     * e uma string intermediária por operando.
+     */
+    private StaticType compileAddChain(Expr.Binary expr) {
+        List<Expr> operands = new ArrayList<>();
+        collectAddOperands(expr, operands);
+
+        StaticType accumulated = compile(operands.get(0));
+        int next = 1;
+        while (next < operands.size()) {
+            int remaining = operands.size() - next;
+            if (accumulated == StaticType.STRING && remaining >= 2) {
+                int count = Math.min(remaining, MAX_CONCAT - 1);
+                for (int i = 0; i < count; i++) compile(operands.get(next + i));
+                emitByte(OpCode.OP_CONCAT);
+                emitByte((byte) (count + 1));
+                next += count;
+                continue;
+            }
+            StaticType right = compile(operands.get(next++));
+            if (accumulated == StaticType.NUMBER && right == StaticType.NUMBER) {
+                emitByte(OpCode.OP_ADD_NUM);
+                continue; // Continua NUMBER
+            }
+            emitByte(OpCode.OP_ADD);
+            // Se um dos lados é string, o '+' é sempre concatenação
+            accumulated = (accumulated == StaticType.STRING || right == StaticType.STRING)
+                    ? StaticType.STRING : StaticType.UNKNOWN;
+        }
+        return accumulated;
+    }
+
+    // Operandos de uma cadeia de '+', da esquerda para a direita. Agrupamentos
+    // explícitos (`a + (b + c)`) ficam como um operando só.
+    private static void collectAddOperands(Expr expr, List<Expr> operands) {
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).operator.type == TokenType.Plus) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            collectAddOperands(binary.left, operands);
+            operands.add(binary.right);
+        } else {
+            operands.add(expr);
+        }
+    }
+
+    /**
+     * Comparação relacional entre duas variáveis locais: emite
+     * OP_LESS_LOCAL_LOCAL ou OP_LESS_EQUAL_LOCAL_LOCAL, trocando os slots
+     * para '>' e '>='. Devolve null se a expressão não tem essa forma.
+     */
+    private StaticType compileLocalComparison(Expr.Binary expr) {
+        if (!(expr.left instanceof Expr.Variable) || !(expr.right instanceof Expr.Variable)) return null;
+        int left = resolveLocal(((Expr.Variable) expr.left).name);
+        int right = resolveLocal(((Expr.Variable) expr.right).name);
+        if (left == -1 || right == -1) return null;
+
+        byte instruction;
+        boolean swap;
+        switch (expr.operator.type) {
+            case Less:         instruction = OpCode.OP_LESS_LOCAL_LOCAL;       swap = false; break;
+            case Greater:      instruction = OpCode.OP_LESS_LOCAL_LOCAL;       swap = true;  break; // b < a
+            case LessEqual:    instruction = OpCode.OP_LESS_EQUAL_LOCAL_LOCAL; swap = false; break;
+            case GreaterEqual: instruction = OpCode.OP_LESS_EQUAL_LOCAL_LOCAL; swap = true;  break; // b <= a
+            default: return null;
+        }
+        emitByte(instruction);
+        emitByte((byte) (swap ? right : left));
+        emitByte((byte) (swap ? left : right));
+        boolean numeric = locals[left].type == StaticType.NUMBER && locals[right].type == StaticType.NUMBER;
+        return numeric ? StaticType.BOOL : StaticType.UNKNOWN;
     }
+
     public Chunk getCompiledChunk() {
         return compilingChunk;
     }
@@ -260,87 +495,246 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        StaticType declared = declaredType(stmt.typeToken);
+
         // Compila o inicializador (coloca o valor na pilha)
         if (stmt.initializer != null) {
-            compile(stmt.initializer);
+            StaticType actual = compile(stmt.initializer);
+            checkAssignable(stmt.name, declared, actual);
+        } else if (declared == StaticType.NUMBER) {
+            // 'var int x;' começa em 0 (e não nil), para o tipo valer desde o início
+            emitNumber(0.0);
         } else {
-            emitByte((byte)OpCode.OP_NIL.ordinal());
+            emitByte(OpCode.OP_NIL);
         }
 
         if (scopeDepth > 0) {
             // É LOCAL: Não emitimos código! O valor já está na pilha.
             // Apenas registramos que esse slot da pilha agora tem nome.
-            addLocal(stmt.name);
+            addLocal(stmt.name, declared);
         } else {
             // É GLOBAL
-            int nameIndex = currentChunk().addConstant(stmt.name.lexeme);
-            emitByte((byte)OpCode.OP_DEFINE_GLOBAL.ordinal());
-            emitByte((byte)nameIndex);
+            if (declared == StaticType.NUMBER) {
+                globalTypes.put(stmt.name.lexeme, declared);
+            } else {
+                globalTypes.remove(stmt.name.lexeme); // Redeclaração sem tipo
+            }
+            emitGlobal(OpCode.OP_DEFINE_GLOBAL, stmt.name);
         }
         return null;
     }
 
-    @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        // 1. Compila a condição
-        compile(stmt.condition);
+    // Tipo estático garantido por uma anotação: só 'int' e 'float' (números)
+    // geram especialização; 'bool' e a ausência de anotação ficam UNKNOWN.
+    private StaticType declaredType(Token typeToken) {
+        if (typeToken == null) return StaticType.UNKNOWN;
+        switch (typeToken.type) {
+            case Int:
+            case Float:
+                return StaticType.NUMBER;
+            default:
+                return StaticType.UNKNOWN;
+        }
+    }
 
-        // 2. Emite salto: Se falso, salta para o 'else' (ou fim)
-        // jumpToElse: guardamos a posição para remendar depois
-        int jumpToElse = emitJump(OpCode.OP_JUMP_IF_FALSE);
+    /**
+     * Garante que o valor no topo da pilha respeita o tipo declarado da
+     * variável: erro de compilação se o tipo estático é outro, ou uma
+     * verificação em tempo de execução (OP_CHECK_NUMBER) se é desconhecido.
+     */
+    private void checkAssignable(Token name, StaticType declared, StaticType actual) {
+        if (declared != StaticType.NUMBER || actual == StaticType.NUMBER) return;
+        if (actual != StaticType.UNKNOWN) {
+            diagnostics.error(name, "A variável '" + name.lexeme + "' é numérica e não aceita este valor.");
+            throw new CompileError();
+        }
+        emitByte(OpCode.OP_CHECK_NUMBER);
+    }
 
-        // 3. Retira a condição da pilha (já foi usada pelo JUMP_IF_FALSE se for true)
-        emitByte((byte)OpCode.OP_POP.ordinal());
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        // 1. A condição vira saltos direto para o 'else' (ou fim) quando é falsa;
+        //    nenhum booleano fica na pilha, então não há OP_POP nos caminhos.
+        List<Integer> jumpsToElse = compileJumpIf(stmt.condition, false);
 
-        // 4. Compila o bloco 'then'
+        // 2. Compila o bloco 'then'
         compile(stmt.thenBranch);
 
-        // 5. Emite salto: Ao fim do 'then', salta para o fim total (pula o else)
-        int jumpToEnd = emitJump(OpCode.OP_JUMP);
-
-        // 6. Remenda o primeiro salto (agora sabemos onde o else começa)
-        patchJump(jumpToElse);
+        if (stmt.elseBranch == null) {
+            patchJumps(jumpsToElse);
+            return null;
+        }
 
-        // 7. Retira a condição da pilha (se saltámos para cá, ela ainda estava lá)
-        emitByte((byte) OpCode.OP_POP.ordinal());
+        // 3. Ao fim do 'then', salta para o fim total (pula o else)
+        int jumpToEnd = emitJump(OpCode.OP_JUMP);
 
-        // 8. Compila o bloco 'else' (se existir)
-        if (stmt.elseBranch != null) {
-            compile(stmt.elseBranch);
-        }
+        // 4. Remenda os saltos da condição (agora sabemos onde o else começa)
+        patchJumps(jumpsToElse);
+        compile(stmt.elseBranch);
 
-        // 9. Remenda o segundo salto (agora sabemos onde o fim é)
+        // 5. Remenda o salto do fim
         patchJump(jumpToEnd);
-
         return null;
     }
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        // 1. Marca o início do loop
-        int loopStart = currentChunk().getCode().size();
+        // Forma "rodada" (loop inversion): um teste de guarda antes de entrar
+        // e a condição repetida no fim do corpo, com um único desvio para trás
+        // por volta.
+        //
+        //        <condição falsa?> -> saída
+        // corpo: <corpo>
+        //        <condição verdadeira?> -> corpo
+        // saída:
+
+        // 1. Guarda: se a condição já começa falsa, pula o laço inteiro
+        List<Integer> exitJumps = compileJumpIf(stmt.condition, false);
+
+        // 2. Compila o corpo
+        int bodyStart = currentChunk().count();
+        compile(stmt.body);
 
-        // 2. Compila a condição
-        compile(stmt.condition);
+        // 3. Testa de novo e volta ao corpo enquanto for verdadeira
+        compileLoopIf(stmt.condition, true, bodyStart);
+
+        // 4. Remenda os saltos de saída da guarda
+        patchJumps(exitJumps);
+        return null;
+    }
 
-        // 3. Emite salto de saída: Se falso, sai do loop
-        int exitJump = emitJump(OpCode.OP_JUMP_IF_FALSE);
+    /**
+     * Compila uma condição diretamente como fluxo de controle: o código
+     * gerado salta quando a veracidade da condição é igual a `sense` e
+     * continua na instrução seguinte no caso contrário, sem deixar nada na
+     * pilha. Devolve os offsets dos saltos a remendar com o destino.
+     *
+     * - `!x` inverte o sentido;
+     * - `a and b` / `a or b` viram saltos em cascata (curto-circuito);
+     * - comparações usam os opcodes de comparar e desviar;
+     * - literais não geram teste nenhum (ou só um OP_JUMP).
+     */
+    private List<Integer> compileJumpIf(Expr condition, boolean sense) {
+        List<Integer> jumps = new ArrayList<>();
+        compileBranch(condition, sense, -1, jumps);
+        return jumps;
+    }
 
-        // 4. Pop da condição (se for true)
-        emitByte((byte)OpCode.OP_POP.ordinal());
+    // Como compileJumpIf, mas o destino é `loopStart`, para trás (já conhecido)
+    private void compileLoopIf(Expr condition, boolean sense, int loopStart) {
+        compileBranch(condition, sense, loopStart, null);
+    }
 
-        // 5. Compila o corpo
-        compile(stmt.body);
+    /**
+     * Implementação comum: com `loopStart` = -1 os saltos vão para a frente
+     * e os seus offsets são acrescentados a `jumps`; senão voltam direto a
+     * `loopStart`. Os saltos internos do curto-circuito são sempre para a frente.
+     */
+    private void compileBranch(Expr condition, boolean sense, int loopStart, List<Integer> jumps) {
+        if (condition instanceof Expr.Grouping) {
+            compileBranch(((Expr.Grouping) condition).expression, sense, loopStart, jumps);
+            return;
+        }
 
-        // 6. Emite salto de volta para o início
-        emitLoop(loopStart);
+        if (condition instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) condition).value;
+            boolean truthy = value != null && !Boolean.FALSE.equals(value);
+            if (truthy == sense) emitBranch(OpCode.OP_JUMP, OpCode.OP_LOOP, loopStart, jumps);
+            return;
+        }
 
-        // 7. Remenda o salto de saída
-        patchJump(exitJump);
+        if (condition instanceof Expr.Unary && ((Expr.Unary) condition).operator.type == TokenType.Bang) {
+            compileBranch(((Expr.Unary) condition).right, !sense, loopStart, jumps);
+            return;
+        }
+
+        if (condition instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) condition;
+            boolean isAnd = logical.operator.type == TokenType.And;
+            if (isAnd != sense) {
+                // and/falso ou or/verdadeiro: qualquer um dos lados decide
+                compileBranch(logical.left, sense, loopStart, jumps);
+                compileBranch(logical.right, sense, loopStart, jumps);
+            } else {
+                // and/verdadeiro ou or/falso: o lado esquerdo pode encerrar sem saltar
+                List<Integer> skip = compileJumpIf(logical.left, !sense);
+                compileBranch(logical.right, sense, loopStart, jumps);
+                patchJumps(skip);
+            }
+            return;
+        }
 
-        // 8. Pop da condição (se saltou para fora)
-        emitByte((byte)OpCode.OP_POP.ordinal());
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            byte fused = fusedBranch(binary, sense, loopStart != -1);
+            if (fused != -1) {
+                compile(binary.left);
+                compile(binary.right);
+                emitBranch(fused, fused, loopStart, jumps);
+                return;
+            }
+        }
 
-        return null;
+        // Caso geral: calcula o valor e salta desempilhando-o
+        compile(condition);
+        if (sense) {
+            emitBranch(OpCode.OP_POP_JUMP_IF_TRUE, OpCode.OP_LOOP_IF_TRUE, loopStart, jumps);
+        } else {
+            emitBranch(OpCode.OP_POP_JUMP_IF_FALSE, OpCode.OP_LOOP_IF_FALSE, loopStart, jumps);
+        }
+    }
+
+    // Emite a forma para a frente (a remendar) ou para trás (até loopStart)
+    private void emitBranch(byte forward, byte backward, int loopStart, List<Integer> jumps) {
+        if (loopStart == -1) {
+            jumps.add(emitJump(forward));
+        } else {
+            emitLoop(backward, loopStart);
+        }
+    }
+
+    /**
+     * Opcode de comparar e desviar que salta quando `expr` tem a veracidade
+     * `sense`, ou -1 se não existe.
+     * - Para a frente os opcodes saltam quando a comparação NÃO vale, então
+     *   com sense = true só a igualdade tem versão (a negação de `a < b` não
+     *   é `a >= b` quando há NaN).
+     * - Para trás (OP_LOOP_IF_*) é o contrário: voltam quando a comparação
+     *   vale, e com sense = false só a igualdade tem versão.
+     * Comparações entre duas locais ficam de fora: OP_LESS_LOCAL_LOCAL + um
+     * desvio que desempilha já são só duas instruções.
+     */
+    private byte fusedBranch(Expr.Binary expr, boolean sense, boolean backward) {
+        if (expr.left instanceof Expr.Variable && expr.right instanceof Expr.Variable
+                && resolveLocal(((Expr.Variable) expr.left).name) != -1
+                && resolveLocal(((Expr.Variable) expr.right).name) != -1) {
+            return -1;
+        }
+        if (backward) {
+            switch (expr.operator.type) {
+                case EqualEqual:   return sense ? OpCode.OP_LOOP_IF_EQUAL : OpCode.OP_LOOP_IF_NOT_EQUAL;
+                case BangEqual:    return sense ? OpCode.OP_LOOP_IF_NOT_EQUAL : OpCode.OP_LOOP_IF_EQUAL;
+                case Less:         return sense ? OpCode.OP_LOOP_IF_LESS : -1;
+                case Greater:      return sense ? OpCode.OP_LOOP_IF_GREATER : -1;
+                case LessEqual:    return sense ? OpCode.OP_LOOP_IF_LESS_EQUAL : -1;
+                case GreaterEqual: return sense ? OpCode.OP_LOOP_IF_GREATER_EQUAL : -1;
+                default:           return -1;
+            }
+        }
+        switch (expr.operator.type) {
+            case EqualEqual:   return sense ? OpCode.OP_JUMP_IF_EQUAL : OpCode.OP_JUMP_IF_NOT_EQUAL;
+            case BangEqual:    return sense ? OpCode.OP_JUMP_IF_NOT_EQUAL : OpCode.OP_JUMP_IF_EQUAL;
+            case Less:         return sense ? -1 : OpCode.OP_JUMP_IF_NOT_LESS;
+            case Greater:      return sense ? -1 : OpCode.OP_JUMP_IF_NOT_GREATER;
+            case LessEqual:    return sense ? -1 : OpCode.OP_JUMP_IF_NOT_LESS_EQUAL;
+            case GreaterEqual: return sense ? -1 : OpCode.OP_JUMP_IF_NOT_GREATER_EQUAL;
+            default:           return -1;
+        }
+    }
+
+    private void patchJumps(List<Integer> offsets) {
+        for (int offset : offsets) {
+            patchJump(offset);
+        }
     }
     @Override
     public Void visitForStmt(Stmt.For stmt) {
@@ -358,63 +752,31 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         // --- B. Definir o Iterador (i) ---
         // Coloca o valor inicial 0 na pilha.
-        emitByte((byte)OpCode.OP_CONSTANT.ordinal());
-        int zeroIndex = currentChunk().addConstant(0.0);
-        emitByte((byte)zeroIndex);
+        emitNumber(0.0);
 
         // Define a variável do usuário (ex: 'i') apontando para esse 0.
         addLocal(stmt.iterator);
 
-        // --- C. Início do Loop ---
-        int loopStart = currentChunk().getCode().size();
-
-        // --- D. Condição (i < limit) ---
-        // Precisamos ler as variáveis locais da pilha para comparar.
+        // --- C. Preparação ---
+        // O limite fica no slot logo abaixo do iterador; OP_FOR_PREP testa
+        // 0 < limit uma vez e, se falhar, salta direto para a saída.
         int iterSlot = resolveLocal(stmt.iterator);
-        int limitSlot = resolveLocal(limitVar);
-
-        // Carrega i
-        emitByte((byte)OpCode.OP_GET_LOCAL.ordinal());
-        emitByte((byte)iterSlot);
-
-        // Carrega limit
-        emitByte((byte)OpCode.OP_GET_LOCAL.ordinal());
-        emitByte((byte)limitSlot);
-
-        // Verifica i < limit
-        emitByte((byte)OpCode.OP_LESS.ordinal());
+        int exitJump = emitForJump(OpCode.OP_FOR_PREP, iterSlot);
 
-        // --- E. Saída ---
-        int exitJump = emitJump(OpCode.OP_JUMP_IF_FALSE);
-        emitByte((byte)OpCode.OP_POP.ordinal()); // Descarta o resultado da comparação (true)
-
-        // --- F. Corpo ---
+        // --- D. Corpo ---
+        int bodyStart = currentChunk().count();
         compile(stmt.body);
 
-        // --- G. Incremento (i = i + 1) ---
-        // Carrega i
-        emitByte((byte)OpCode.OP_GET_LOCAL.ordinal());
-        emitByte((byte)iterSlot);
-
-        // Carrega 1
-        emitByte((byte)OpCode.OP_CONSTANT.ordinal());
-        int oneIndex = currentChunk().addConstant(1.0);
-        emitByte((byte)oneIndex);
-
-        // Soma
-        emitByte((byte)OpCode.OP_ADD.ordinal());
-
-        // Atualiza i na pilha
-        emitByte((byte)OpCode.OP_SET_LOCAL.ordinal());
+        // --- E. Incremento, teste e volta numa só instrução ---
+        emitByte(OpCode.OP_FOR_LOOP);
         emitByte((byte)iterSlot);
-        emitByte((byte)OpCode.OP_POP.ordinal()); // O SET deixa o valor na pilha, precisamos descartar
-
-        // --- H. Loop Back ---
-        emitLoop(loopStart);
+        int offset = currentChunk().count() - bodyStart + 2;
+        if (offset > 65535) throw new CompileError();
+        emitByte((byte)((offset >> 8) & 0xff));
+        emitByte((byte)(offset & 0xff));
 
-        // --- I. Finalização ---
+        // --- F. Saída ---
         patchJump(exitJump);
-        emitByte((byte)OpCode.OP_POP.ordinal()); // Descarta o resultado da comparação (false)
 
         endScope(); // Descarta 'i' e '$limit' da pilha
         return null;
@@ -423,87 +785,74 @@ public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // Expr
     // --- Acesso a Variável (print a;) ---
     @Override
-    public Void visitVariableExpr(Expr.Variable expr) {
+    public StaticType visitVariableExpr(Expr.Variable expr) {
         // Tenta resolver como local primeiro
         int arg = resolveLocal(expr.name);
 
         if (arg != -1) {
             // É LOCAL
-            emitByte((byte)OpCode.OP_GET_LOCAL.ordinal());
+            emitByte(OpCode.OP_GET_LOCAL);
             emitByte((byte)arg);
+            return locals[arg].type;
         } else {
             // É GLOBAL
-            int nameIndex = currentChunk().addConstant(expr.name.lexeme);
-            emitByte((byte)OpCode.OP_GET_GLOBAL.ordinal());
-            emitByte((byte)nameIndex);
+            emitGlobal(OpCode.OP_GET_GLOBAL, expr.name);
+            return globalTypes.getOrDefault(expr.name.lexeme, StaticType.UNKNOWN);
         }
-        return null;
     }
     // --- Atribuição (a = 2;) ---
     @Override
-    public Void visitAssignExpr(Expr.Assign expr) {
-        compile(expr.value); // Valor na pilha
+    public StaticType visitAssignExpr(Expr.Assign expr) {
+        StaticType type = compile(expr.value); // Valor na pilha
 
         int arg = resolveLocal(expr.name);
 
         if (arg != -1) {
             // É LOCAL
-            emitByte((byte)OpCode.OP_SET_LOCAL.ordinal());
+            StaticType declared = locals[arg].type;
+            checkAssignable(expr.name, declared, type);
+            emitByte(OpCode.OP_SET_LOCAL);
             emitByte((byte)arg);
+            return declared == StaticType.NUMBER ? declared : type;
         } else {
             // É GLOBAL
-            int nameIndex = currentChunk().addConstant(expr.name.lexeme);
-            emitByte((byte)OpCode.OP_SET_GLOBAL.ordinal());
-            emitByte((byte)nameIndex);
+            StaticType declared = globalTypes.getOrDefault(expr.name.lexeme, StaticType.UNKNOWN);
+            checkAssignable(expr.name, declared, type);
+            emitGlobal(OpCode.OP_SET_GLOBAL, expr.name);
+            return declared == StaticType.NUMBER ? declared : type;
         }
-        return null;
     }
 
     @Override
-    public Void visitLogicalExpr(Expr.Logical expr) {
+    public StaticType visitLogicalExpr(Expr.Logical expr) {
         // 1. Compila o lado esquerdo
-        compile(expr.left);
+        StaticType left = compile(expr.left);
 
         // 2. Verifica se podemos fazer curto-circuito (short-circuit)
         // AND: Se a esquerda for false, todo o resultado é false -> salta para o fim.
         // OR:  Se a esquerda for true, todo o resultado é true  -> salta para o fim.
-
-        int endJump = -1;
-
-        if (expr.operator.type == TokenType.And) {
-            endJump = emitJump(OpCode.OP_JUMP_IF_FALSE);
-        } else {
-            // Para o OR é um pouco mais subtil:
-            // Queremos saltar se for VERDADEIRO.
-            // Como só temos JUMP_IF_FALSE, vamos fazer:
-            // JUMP_IF_FALSE (para o próximo passo)
-            // JUMP (para o fim) -> Achou verdadeiro!
-            // próximo passo: continua a avaliação
-
-            int elseJump = emitJump(OpCode.OP_JUMP_IF_FALSE);
-            int end = emitJump(OpCode.OP_JUMP);
-
-            patchJump(elseJump);
-            endJump = end;
-        }
+        // O salto não desempilha: o valor da esquerda é o resultado nesse caso.
+        int endJump = emitJump(expr.operator.type == TokenType.And
+                ? OpCode.OP_JUMP_IF_FALSE : OpCode.OP_JUMP_IF_TRUE);
 
         // 3. Se não houve curto-circuito, descartamos o valor da esquerda
         // e avaliamos o da direita.
-        emitByte((byte) OpCode.OP_POP.ordinal());
+        emitByte(OpCode.OP_POP);
 
-        compile(expr.right);
+        StaticType right = compile(expr.right);
 
         // 4. Remenda o salto do curto-circuito
         patchJump(endJump);
 
-        return null;
+        // O resultado é um dos dois operandos
+        return left == right ? left : StaticType.UNKNOWN;
     }
     //implementações futuras
-    @Override public Void visitCallExpr(Expr.Call expr) { return null; }
-    @Override public Void visitGetExpr(Expr.Get expr) { return null; }
-    @Override public Void visitSetExpr(Expr.Set expr) { return null; }
-    @Override public Void visitThisExpr(Expr.This expr) { return null; }
-    @Override public Void visitSuperExpr(Expr.Super expr) { return null; }
+    @Override public StaticType visitCallExpr(Expr.Call expr) { return StaticType.UNKNOWN; }
+    @Override public StaticType visitGetExpr(Expr.Get expr) { return StaticType.UNKNOWN; }
+    @Override public StaticType visitSetExpr(Expr.Set expr) { return StaticType.UNKNOWN; }
+    @Override public StaticType visitThisExpr(Expr.This expr) { return StaticType.UNKNOWN; }
+    @Override public StaticType visitSuperExpr(Expr.Super expr) { return StaticType.UNKNOWN; }
 
 
 
@@ -6,7 +6,7 @@ public class Debug {
     public static void disassembleChunk(Chunk chunk, String name) {
         System.out.println("== " + name + " ==");
 
-        for (int offset = 0; offset < chunk.getCode().size(); ) {
+        for (int offset = 0; offset < chunk.count(); ) {
             offset = disassembleInstruction(chunk, offset);
         }
         System.out.println("== Fim do Chunk ==\n");
@@ -24,49 +24,113 @@ public class Debug {
             System.out.printf("%4d ", line);
         }
 
-        byte instruction = chunk.getCode().get(offset);
-        if (instruction < 0 || instruction >= OpCode.values().length) {
+        int instruction = chunk.getByte(offset) & 0xFF;
+        String name = OpCode.name(instruction);
+        if (name == null) {
             System.out.println("Opcode desconhecido " + instruction);
             return offset + 1;
         }
 
-        OpCode op = OpCode.values()[instruction];
-
-        switch (op) {
+        switch (instruction) {
             // Instruções simples (sem operandos)
-            case OP_RETURN:
-            case OP_NIL:
-            case OP_TRUE:
-            case OP_FALSE:
-            case OP_POP:
-            case OP_PRINT:
-            case OP_NEGATE:
-            case OP_NOT:
-            case OP_ADD:
-            case OP_SUBTRACT:
-            case OP_MULTIPLY:
-            case OP_DIVIDE:
-            case OP_EQUAL:
-            case OP_GREATER:
-            case OP_LESS:
-                return simpleInstruction(op.name(), offset);
+            case OpCode.OP_RETURN:
+            case OpCode.OP_NIL:
+            case OpCode.OP_TRUE:
+            case OpCode.OP_FALSE:
+            case OpCode.OP_POP:
+            case OpCode.OP_PRINT:
+            case OpCode.OP_NEGATE:
+            case OpCode.OP_NOT:
+            case OpCode.OP_ADD:
+            case OpCode.OP_SUBTRACT:
+            case OpCode.OP_MULTIPLY:
+            case OpCode.OP_DIVIDE:
+            case OpCode.OP_EQUAL:
+            case OpCode.OP_GREATER:
+            case OpCode.OP_LESS:
+            case OpCode.OP_ADD_NUM:
+            case OpCode.OP_SUBTRACT_NUM:
+            case OpCode.OP_MULTIPLY_NUM:
+            case OpCode.OP_DIVIDE_NUM:
+            case OpCode.OP_LESS_NUM:
+            case OpCode.OP_GREATER_NUM:
+            case OpCode.OP_CHECK_NUMBER:
+            case OpCode.OP_QADD_NUM:
+            case OpCode.OP_QSUBTRACT_NUM:
+            case OpCode.OP_QMULTIPLY_NUM:
+            case OpCode.OP_QDIVIDE_NUM:
+            case OpCode.OP_QLESS_NUM:
+            case OpCode.OP_QGREATER_NUM:
+            case OpCode.OP_QEQUAL_NUM:
+            case OpCode.OP_QADD_STR:
+            case OpCode.OP_GREATER_EQUAL:
+            case OpCode.OP_LESS_EQUAL:
+            case OpCode.OP_NOT_EQUAL:
+            case OpCode.OP_GREATER_EQUAL_NUM:
+            case OpCode.OP_LESS_EQUAL_NUM:
+            case OpCode.OP_QGREATER_EQUAL_NUM:
+            case OpCode.OP_QLESS_EQUAL_NUM:
+            case OpCode.OP_QNOT_EQUAL_NUM:
+                return simpleInstruction(name, offset);
 
             // Instruções com 1 operando (índice de constante ou slot de variável)
-            case OP_CONSTANT:
-            case OP_DEFINE_GLOBAL:
-            case OP_GET_GLOBAL:
-            case OP_SET_GLOBAL:
-                return constantInstruction(op.name(), chunk, offset);
-
-            case OP_GET_LOCAL:
-            case OP_SET_LOCAL:
-                return byteInstruction(op.name(), chunk, offset);
+            case OpCode.OP_CONSTANT:
+                return numberInstruction(name, chunk, offset, 1);
+            case OpCode.OP_CONSTANT_LONG:
+                return numberInstruction(name, chunk, offset, 3);
+            case OpCode.OP_STRING:
+                return stringInstruction(name, chunk, offset, 1);
+            case OpCode.OP_STRING_LONG:
+                return stringInstruction(name, chunk, offset, 3);
+
+            case OpCode.OP_GET_LOCAL:
+            case OpCode.OP_SET_LOCAL:
+            case OpCode.OP_SET_LOCAL_POP:
+            case OpCode.OP_INC_LOCAL:
+            case OpCode.OP_DEC_LOCAL:
+            case OpCode.OP_POPN:
+            case OpCode.OP_CONCAT:
+                return byteInstruction(name, chunk, offset);
+            case OpCode.OP_LESS_LOCAL_LOCAL:
+            case OpCode.OP_LESS_EQUAL_LOCAL_LOCAL:
+                return twoByteInstruction(name, chunk, offset);
+
+            // Instruções de globais (slot de 2 bytes)
+            case OpCode.OP_DEFINE_GLOBAL:
+            case OpCode.OP_GET_GLOBAL:
+            case OpCode.OP_SET_GLOBAL:
+            case OpCode.OP_SET_GLOBAL_POP:
+            case OpCode.OP_INC_GLOBAL:
+            case OpCode.OP_DEC_GLOBAL:
+                return globalInstruction(name, chunk, offset);
 
             // Instruções de Salto (2 bytes de operando)
-            case OP_JUMP:
-            case OP_JUMP_IF_FALSE:
-            case OP_LOOP:
-                return jumpInstruction(op.name(), 1, chunk, offset);
+            case OpCode.OP_JUMP:
+            case OpCode.OP_JUMP_IF_FALSE:
+            case OpCode.OP_POP_JUMP_IF_FALSE:
+            case OpCode.OP_POP_JUMP_IF_TRUE:
+            case OpCode.OP_JUMP_IF_TRUE:
+            case OpCode.OP_JUMP_IF_NOT_LESS:
+            case OpCode.OP_JUMP_IF_NOT_GREATER:
+            case OpCode.OP_JUMP_IF_NOT_LESS_EQUAL:
+            case OpCode.OP_JUMP_IF_NOT_GREATER_EQUAL:
+            case OpCode.OP_JUMP_IF_NOT_EQUAL:
+            case OpCode.OP_JUMP_IF_EQUAL:
+                return jumpInstruction(name, 1, chunk, offset);
+            case OpCode.OP_LOOP:
+            case OpCode.OP_LOOP_IF_TRUE:
+            case OpCode.OP_LOOP_IF_FALSE:
+            case OpCode.OP_LOOP_IF_LESS:
+            case OpCode.OP_LOOP_IF_GREATER:
+            case OpCode.OP_LOOP_IF_LESS_EQUAL:
+            case OpCode.OP_LOOP_IF_GREATER_EQUAL:
+            case OpCode.OP_LOOP_IF_EQUAL:
+            case OpCode.OP_LOOP_IF_NOT_EQUAL:
+                return jumpInstruction(name, -1, chunk, offset); // Salto para trás
+            case OpCode.OP_FOR_PREP:
+                return forInstruction(name, 1, chunk, offset);
+            case OpCode.OP_FOR_LOOP:
+                return forInstruction(name, -1, chunk, offset);
 
             default:
                 System.out.println("Opcode desconhecido " + instruction);
@@ -81,24 +145,64 @@ public class Debug {
         return offset + 1;
     }
 
-    private static int constantInstruction(String name, Chunk chunk, int offset) {
-        int constantIndex = chunk.getCode().get(offset + 1) & 0xFF; // Pega o operando (índice)
+    // Lê o índice de constante (1 ou 3 bytes, big-endian) logo após o opcode
+    private static int readIndex(Chunk chunk, int offset, int width) {
+        int index = 0;
+        for (int i = 1; i <= width; i++) {
+            index = (index << 8) | (chunk.getByte(offset + i) & 0xFF);
+        }
+        return index;
+    }
+
+    private static int numberInstruction(String name, Chunk chunk, int offset, int width) {
+        int constantIndex = readIndex(chunk, offset, width); // Pega o operando (índice)
         System.out.printf("%-16s %4d '", name, constantIndex);
-        Object value = chunk.getConstants().get(constantIndex);
-        System.out.print(value);
+        System.out.print(chunk.getNumber(constantIndex));
         System.out.println("'");
-        return offset + 2; // Opcode + 1 byte de operando
+        return offset + 1 + width; // Opcode + operando
+    }
+
+    private static int stringInstruction(String name, Chunk chunk, int offset, int width) {
+        int constantIndex = readIndex(chunk, offset, width);
+        System.out.printf("%-16s %4d '", name, constantIndex);
+        System.out.print(chunk.getString(constantIndex));
+        System.out.println("'");
+        return offset + 1 + width;
+    }
+
+    private static int globalInstruction(String name, Chunk chunk, int offset) {
+        int slot = readIndex(chunk, offset, 2);
+        System.out.printf("%-16s %4d '%s'\n", name, slot, chunk.getGlobalName(slot));
+        return offset + 3; // Opcode + 2 bytes de slot
     }
 
     private static int byteInstruction(String name, Chunk chunk, int offset) {
-        int slot = chunk.getCode().get(offset + 1) & 0xFF;
+        int slot = chunk.getByte(offset + 1) & 0xFF;
         System.out.printf("%-16s %4d\n", name, slot);
         return offset + 2;
     }
 
+    // Dois operandos de 1 byte (ex: os dois slots de OP_LESS_LOCAL_LOCAL)
+    private static int twoByteInstruction(String name, Chunk chunk, int offset) {
+        int first = chunk.getByte(offset + 1) & 0xFF;
+        int second = chunk.getByte(offset + 2) & 0xFF;
+        System.out.printf("%-16s %4d %4d\n", name, first, second);
+        return offset + 3;
+    }
+
+    // Slot do iterador (1 byte) + salto (2 bytes)
+    private static int forInstruction(String name, int sign, Chunk chunk, int offset) {
+        int slot = chunk.getByte(offset + 1) & 0xFF;
+        int jump = (chunk.getByte(offset + 2) & 0xFF) << 8 |
+                (chunk.getByte(offset + 3) & 0xFF);
+        System.out.printf("%-16s %4d %4d -> %d\n", name, slot, offset,
+                offset + 4 + sign * jump);
+        return offset + 4;
+    }
+
     private static int jumpInstruction(String name, int sign, Chunk chunk, int offset) {
-        int jump = (chunk.getCode().get(offset + 1) & 0xFF) << 8 |
-                (chunk.getCode().get(offset + 2) & 0xFF);
+        int jump = (chunk.getByte(offset + 1) & 0xFF) << 8 |
+                (chunk.getByte(offset + 2) & 0xFF);
         System.out.printf("%-16s %4d -> %d\n", name, offset,
                 offset + 3 + sign * jump);
         return offset + 3; // Opcode + 2 bytes de operando
@@ -0,0 +1,32 @@
+package main.java.org.cmt.compilers.bytecode;
+
+/**
+ * Estratégia de despacho da VM: lê o opcode em `vm.ip` e chama o método
+ * `VM.op...` correspondente, até a VM executar OP_RETURN.
+ *
+ * Existem duas implementações intercambiáveis, escolhidas na construção
+ * da VM, para podermos medir qual delas o JIT otimiza melhor:
+ * - {@link #SWITCH}: um `switch` denso sobre o byte do opcode;
+ * - {@link #TABLE}: uma tabela de objetos-instrução indexada pelo opcode.
+ *
+ * Erros de execução interrompem o engine com uma exceção, tratada em
+ * {@link VM#interpret(CompiledProgram)}.
+ */
+public interface DispatchEngine {
+
+    DispatchEngine SWITCH = new SwitchDispatch();
+    DispatchEngine TABLE = new TableDispatch();
+
+    /** Executa a partir de `vm.ip` até OP_RETURN. */
+    void run(VM vm);
+
+    /**
+     * Resolve o engine pelo nome ("switch" ou "table"), por exemplo a partir
+     * de uma opção de linha de comando. Nome nulo ou vazio resulta no padrão.
+     */
+    static DispatchEngine fromName(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("switch")) return SWITCH;
+        if (name.equalsIgnoreCase("table")) return TABLE;
+        throw new IllegalArgumentException("Engine de despacho desconhecido: " + name);
+    }
+}
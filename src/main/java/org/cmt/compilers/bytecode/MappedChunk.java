@@ -0,0 +1,497 @@
+package main.java.org.cmt.compilers.bytecode;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import main.java.org.cmt.compilers.bytecode.ChunkSerializer.FormatError;
+
+/**
+ * Chunk somente-leitura apoiado num buffer no formato .hbc (normalmente um
+ * MappedByteBuffer sobre o arquivo, ver ChunkSerializer.map).
+ *
+ * Abrir o chunk lê o cabeçalho e os tamanhos das seções e valida o código
+ * (uma passada pelos bytes das instruções, ver validate(); nada é copiado
+ * nem decodificado). O resto é lido do buffer sob demanda:
+ * - código: a VM lê opcodes e operandos direto do buffer (codeBuffer());
+ * - linhas e números: direto do buffer (a VM lê cada constante numérica
+ *   por getNumber quando a instrução executa);
+ * - strings e nomes de globais: decodificados (UTF-8) no primeiro uso.
+ *
+ * Como o buffer é somente leitura, a VM não faz quickening num programa
+ * mapeado: as instruções genéricas continuam genéricas. getCode() e
+ * getNumbers() devolvem cópias, só para quem pede o conteúdo inteiro (ex: o
+ * escritor de .hbc); a VM não os usa.
+ */
+final class MappedChunk extends Chunk {
+
+    private static final byte[] NO_CODE = new byte[0];
+    private static final int[] NO_LINES = new int[0];
+    private static final double[] NO_NUMBERS = new double[0];
+    private static final String[] NO_STRINGS = new String[0];
+    // Marcas do validate() no lugar da altura da pilha
+    private static final int NOT_AN_INSTRUCTION = -2;
+    private static final int UNVISITED = -1;
+
+    private final ByteBuffer buffer;
+    private final int codeStart;
+    private final int codeLength;
+    private final IntBuffer lineStarts;
+    private final IntBuffer lineNumbers;
+    private final DoubleBuffer numbers;
+    private final TextTable strings;
+    private final TextTable globalNames;
+
+    MappedChunk(ByteBuffer buffer) throws IOException {
+        super(NO_CODE, NO_LINES, NO_LINES, NO_NUMBERS, NO_STRINGS, NO_STRINGS);
+        this.buffer = buffer;
+        try {
+            ByteBuffer in = buffer.duplicate();
+            byte[] magic = new byte[ChunkSerializer.MAGIC.length];
+            in.get(magic);
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != ChunkSerializer.MAGIC[i]) throw new FormatError("Arquivo não é bytecode Heuler (.hbc).");
+            }
+            int version = in.getShort() & 0xFFFF;
+            if (version != ChunkSerializer.FORMAT_VERSION) {
+                throw new FormatError("Versão de .hbc incompatível: " + version
+                        + " (esperada " + ChunkSerializer.FORMAT_VERSION + ").");
+            }
+            in.getShort(); // Reservado
+
+            codeLength = count(in);
+            codeStart = in.position();
+            skip(in, codeLength);
+
+            int runs = count(in);
+            lineStarts = in.slice(in.position(), runs * Integer.BYTES).asIntBuffer();
+            skip(in, runs * Integer.BYTES);
+            lineNumbers = in.slice(in.position(), runs * Integer.BYTES).asIntBuffer();
+            skip(in, runs * Integer.BYTES);
+
+            int numberCount = count(in);
+            while (in.position() % Double.BYTES != 0) in.get();
+            numbers = in.slice(in.position(), numberCount * Double.BYTES).asDoubleBuffer();
+            skip(in, numberCount * Double.BYTES);
+
+            strings = new TextTable(in);
+            globalNames = new TextTable(in);
+            validate();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new FormatError("Arquivo .hbc truncado ou corrompido.", e);
+        }
+    }
+
+    /**
+     * Confere o código antes de qualquer execução, para que um .hbc
+     * corrompido ou editado à mão seja recusado aqui (e o cache recompile)
+     * em vez de falhar dentro da VM:
+     * 1. instrução a instrução: todo opcode é conhecido, os operandos não
+     *    passam do fim do código e os índices de constantes e de globais
+     *    existem nos pools;
+     * 2. seguindo os saltos a partir do offset 0: todo destino cai no início
+     *    de uma instrução, nenhuma instrução lê abaixo do fundo da pilha,
+     *    os slots de locais estão abaixo do topo, um mesmo ponto é sempre
+     *    alcançado com a mesma altura de pilha e o código não termina sem
+     *    OP_RETURN. Código que nenhum caminho alcança não é conferido (a VM
+     *    também nunca o executa).
+     */
+    private void validate() throws IOException {
+        checkStack(checkInstructions());
+    }
+
+    // Passo 1. Devolve, por offset, UNVISITED no início de cada instrução e
+    // NOT_AN_INSTRUCTION nos bytes de operando (o passo 2 usa como mapa).
+    private int[] checkInstructions() throws IOException {
+        int[] depth = new int[codeLength];
+        Arrays.fill(depth, NOT_AN_INSTRUCTION);
+        int offset = 0;
+        while (offset < codeLength) {
+            byte opcode = buffer.get(codeStart + offset);
+            int length = OpCode.length(opcode);
+            if (length < 0) {
+                throw new FormatError("Opcode desconhecido " + (opcode & 0xFF) + " no offset " + offset + ".");
+            }
+            if (offset + length > codeLength) break;
+            int limit;
+            switch (opcode) {
+                case OpCode.OP_CONSTANT:
+                case OpCode.OP_CONSTANT_LONG:
+                    limit = numbers.limit();
+                    break;
+                case OpCode.OP_STRING:
+                case OpCode.OP_STRING_LONG:
+                    limit = strings.size();
+                    break;
+                case OpCode.OP_DEFINE_GLOBAL:
+                case OpCode.OP_GET_GLOBAL:
+                case OpCode.OP_SET_GLOBAL:
+                case OpCode.OP_INC_GLOBAL:
+                case OpCode.OP_DEC_GLOBAL:
+                case OpCode.OP_SET_GLOBAL_POP:
+                    limit = globalNames.size();
+                    break;
+                default:
+                    limit = -1;
+            }
+            if (limit >= 0 && operand(offset, length) >= limit) {
+                throw new FormatError("Índice fora do pool no offset " + offset + ".");
+            }
+            depth[offset] = UNVISITED;
+            offset += length;
+        }
+        if (offset != codeLength) throw new FormatError("Arquivo .hbc corrompido (instrução truncada).");
+        if (codeLength == 0) throw new FormatError("Arquivo .hbc sem código.");
+        return depth;
+    }
+
+    // Passo 2. `depth` passa a guardar a altura da pilha antes de cada instrução alcançada.
+    private void checkStack(int[] depth) throws IOException {
+        int[] pending = new int[16]; // Offsets alcançados e ainda não conferidos
+        int pendingCount = 0;
+        depth[0] = 0;
+        pending[pendingCount++] = 0;
+        while (pendingCount > 0) {
+            int offset = pending[--pendingCount];
+            byte opcode = buffer.get(codeStart + offset);
+            int length = OpCode.length(opcode);
+            int before = depth[offset];
+            int after = before + stackEffect(opcode, offset, length, before);
+            int next = offset + length;
+            int target = -1;
+            boolean fallsThrough = opcode != OpCode.OP_RETURN && opcode != OpCode.OP_JUMP && opcode != OpCode.OP_LOOP;
+            if (OpCode.isJump(opcode)) {
+                int distance = (byteAt(next - 2) << 8) | byteAt(next - 1);
+                target = OpCode.isBackward(opcode) ? next - distance : next + distance;
+                if (target < 0 || target >= codeLength || depth[target] == NOT_AN_INSTRUCTION) {
+                    throw new FormatError("Destino de salto inválido no offset " + offset + ".");
+                }
+            }
+            if (fallsThrough && next >= codeLength) {
+                throw new FormatError("O código termina sem OP_RETURN (offset " + offset + ").");
+            }
+            if (fallsThrough && reach(depth, next, after)) pending = push(pending, pendingCount++, next);
+            if (target >= 0 && reach(depth, target, after)) pending = push(pending, pendingCount++, target);
+        }
+    }
+
+    // Chega em `offset` com a pilha em `height`; true se é a primeira vez
+    private static boolean reach(int[] depth, int offset, int height) throws IOException {
+        if (depth[offset] == UNVISITED) {
+            depth[offset] = height;
+            return true;
+        }
+        if (depth[offset] != height) {
+            throw new FormatError("Altura de pilha inconsistente no offset " + offset + ".");
+        }
+        return false;
+    }
+
+    private static int[] push(int[] stack, int index, int value) {
+        if (index == stack.length) stack = Arrays.copyOf(stack, index * 2);
+        stack[index] = value;
+        return stack;
+    }
+
+    /**
+     * Quanto a instrução em `offset` muda a altura da pilha, conferindo que
+     * ela tem os valores que lê (`depth` é a altura antes dela) e que os
+     * slots de locais que usa estão abaixo do topo.
+     */
+    private int stackEffect(byte opcode, int offset, int length, int depth) throws IOException {
+        int reads;   // Quantos valores do topo a instrução lê
+        int effect;  // Variação da altura
+        int slot = -1; // Slot de local usado (o maior, nas superinstruções com dois)
+        switch (opcode) {
+            case OpCode.OP_CONSTANT:
+            case OpCode.OP_CONSTANT_LONG:
+            case OpCode.OP_STRING:
+            case OpCode.OP_STRING_LONG:
+            case OpCode.OP_NIL:
+            case OpCode.OP_TRUE:
+            case OpCode.OP_FALSE:
+            case OpCode.OP_GET_GLOBAL:
+                reads = 0; effect = 1; break;
+            case OpCode.OP_NEGATE:
+            case OpCode.OP_NOT:
+            case OpCode.OP_CHECK_NUMBER:
+            case OpCode.OP_SET_GLOBAL:
+            case OpCode.OP_JUMP_IF_FALSE:
+            case OpCode.OP_JUMP_IF_TRUE:
+                reads = 1; effect = 0; break;
+            case OpCode.OP_RETURN:
+            case OpCode.OP_PRINT:
+            case OpCode.OP_POP:
+            case OpCode.OP_DEFINE_GLOBAL:
+            case OpCode.OP_SET_GLOBAL_POP:
+            case OpCode.OP_POP_JUMP_IF_FALSE:
+            case OpCode.OP_POP_JUMP_IF_TRUE:
+            case OpCode.OP_LOOP_IF_TRUE:
+            case OpCode.OP_LOOP_IF_FALSE:
+                reads = 1; effect = -1; break;
+            case OpCode.OP_ADD:
+            case OpCode.OP_SUBTRACT:
+            case OpCode.OP_MULTIPLY:
+            case OpCode.OP_DIVIDE:
+            case OpCode.OP_EQUAL:
+            case OpCode.OP_GREATER:
+            case OpCode.OP_LESS:
+            case OpCode.OP_GREATER_EQUAL:
+            case OpCode.OP_LESS_EQUAL:
+            case OpCode.OP_NOT_EQUAL:
+            case OpCode.OP_ADD_NUM:
+            case OpCode.OP_SUBTRACT_NUM:
+            case OpCode.OP_MULTIPLY_NUM:
+            case OpCode.OP_DIVIDE_NUM:
+            case OpCode.OP_LESS_NUM:
+            case OpCode.OP_GREATER_NUM:
+            case OpCode.OP_GREATER_EQUAL_NUM:
+            case OpCode.OP_LESS_EQUAL_NUM:
+            case OpCode.OP_QADD_NUM:
+            case OpCode.OP_QSUBTRACT_NUM:
+            case OpCode.OP_QMULTIPLY_NUM:
+            case OpCode.OP_QDIVIDE_NUM:
+            case OpCode.OP_QLESS_NUM:
+            case OpCode.OP_QGREATER_NUM:
+            case OpCode.OP_QEQUAL_NUM:
+            case OpCode.OP_QGREATER_EQUAL_NUM:
+            case OpCode.OP_QLESS_EQUAL_NUM:
+            case OpCode.OP_QNOT_EQUAL_NUM:
+            case OpCode.OP_QADD_STR:
+                reads = 2; effect = -1; break;
+            case OpCode.OP_JUMP_IF_NOT_LESS:
+            case OpCode.OP_JUMP_IF_NOT_GREATER:
+            case OpCode.OP_JUMP_IF_NOT_LESS_EQUAL:
+            case OpCode.OP_JUMP_IF_NOT_GREATER_EQUAL:
+            case OpCode.OP_JUMP_IF_NOT_EQUAL:
+            case OpCode.OP_JUMP_IF_EQUAL:
+            case OpCode.OP_LOOP_IF_LESS:
+            case OpCode.OP_LOOP_IF_GREATER:
+            case OpCode.OP_LOOP_IF_LESS_EQUAL:
+            case OpCode.OP_LOOP_IF_GREATER_EQUAL:
+            case OpCode.OP_LOOP_IF_EQUAL:
+            case OpCode.OP_LOOP_IF_NOT_EQUAL:
+                reads = 2; effect = -2; break;
+            case OpCode.OP_INC_GLOBAL:
+            case OpCode.OP_DEC_GLOBAL:
+            case OpCode.OP_JUMP:
+            case OpCode.OP_LOOP:
+                reads = 0; effect = 0; break;
+            case OpCode.OP_GET_LOCAL:
+                reads = 0; effect = 1; slot = operand(offset, length); break;
+            case OpCode.OP_SET_LOCAL:
+                reads = 1; effect = 0; slot = operand(offset, length); break;
+            case OpCode.OP_SET_LOCAL_POP:
+                reads = 1; effect = -1; slot = operand(offset, length); break;
+            case OpCode.OP_INC_LOCAL:
+            case OpCode.OP_DEC_LOCAL:
+                reads = 0; effect = 0; slot = operand(offset, length); break;
+            case OpCode.OP_LESS_LOCAL_LOCAL:
+            case OpCode.OP_LESS_EQUAL_LOCAL_LOCAL:
+                reads = 0; effect = 1;
+                slot = Math.max(byteAt(offset + 1), byteAt(offset + 2));
+                break;
+            case OpCode.OP_FOR_PREP:
+            case OpCode.OP_FOR_LOOP:
+                // O iterador fica em `slot` e o limite em `slot - 1`
+                reads = 0; effect = 0; slot = byteAt(offset + 1);
+                if (slot < 1) throw new FormatError("Laço numérico sem slot de limite no offset " + offset + ".");
+                break;
+            case OpCode.OP_POPN:
+                reads = operand(offset, length); effect = -reads; break;
+            case OpCode.OP_CONCAT:
+                reads = operand(offset, length); effect = 1 - reads;
+                if (reads == 0) throw new FormatError("OP_CONCAT sem valores no offset " + offset + ".");
+                break;
+            default:
+                throw new FormatError("Opcode sem efeito de pilha conhecido no offset " + offset + ".");
+        }
+        if (reads > depth) throw new FormatError("Pilha vazia demais no offset " + offset + ".");
+        if (slot >= depth) throw new FormatError("Slot de local " + slot + " acima do topo no offset " + offset + ".");
+        return effect;
+    }
+
+    private int byteAt(int offset) {
+        return buffer.get(codeStart + offset) & 0xFF;
+    }
+
+    // Operando sem sinal (1 a 3 bytes, big-endian) da instrução em `offset`
+    private int operand(int offset, int length) {
+        int value = 0;
+        for (int i = 1; i < length; i++) value = (value << 8) | (buffer.get(codeStart + offset + i) & 0xFF);
+        return value;
+    }
+
+    private static int count(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < 0) throw new FormatError("Arquivo .hbc corrompido (tamanho negativo).");
+        return count;
+    }
+
+    private static void skip(ByteBuffer in, int bytes) {
+        in.position(in.position() + bytes); // IllegalArgumentException se passar do fim
+    }
+
+    // --- Código ---
+
+    @Override
+    public int count() {
+        return codeLength;
+    }
+
+    @Override
+    public byte getByte(int offset) {
+        if (offset < 0 || offset >= codeLength) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " fora do chunk (tamanho " + codeLength + ")");
+        }
+        return buffer.get(codeStart + offset);
+    }
+
+    @Override
+    byte[] getCode() {
+        byte[] copy = new byte[codeLength];
+        buffer.get(codeStart, copy);
+        return copy;
+    }
+
+    @Override
+    byte[] codeCache() {
+        return null; // A VM lê o código do buffer (codeBuffer)
+    }
+
+    @Override
+    ByteBuffer codeBuffer() {
+        return buffer.slice(codeStart, codeLength).asReadOnlyBuffer();
+    }
+
+    @Override
+    void replaceCode(byte[] newCode, int[] lines) {
+        throw new UnsupportedOperationException("Chunk mapeado é somente leitura.");
+    }
+
+    // --- Linhas ---
+
+    @Override
+    int lineRunCount() {
+        return lineStarts.limit();
+    }
+
+    @Override
+    int lineRunStart(int run) {
+        return lineStarts.get(run);
+    }
+
+    @Override
+    int lineRunNumber(int run) {
+        return lineNumbers.get(run);
+    }
+
+    @Override
+    public int getLine(int offset) {
+        int low = 0;
+        int high = lineStarts.limit() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts.get(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high < 0 ? 0 : lineNumbers.get(low);
+    }
+
+    // --- Constantes ---
+
+    @Override
+    public int numberCount() {
+        return numbers.limit();
+    }
+
+    @Override
+    public double getNumber(int index) {
+        return numbers.get(index);
+    }
+
+    @Override
+    double[] getNumbers() {
+        double[] copy = new double[numbers.limit()];
+        numbers.get(0, copy);
+        return copy;
+    }
+
+    @Override
+    double[] numberCache() {
+        return null; // A VM lê cada número do buffer (getNumber)
+    }
+
+    @Override
+    public int stringCount() {
+        return strings.size();
+    }
+
+    @Override
+    public String getString(int index) {
+        return strings.get(index);
+    }
+
+    @Override
+    String[] getStrings() {
+        for (int i = 0; i < strings.size(); i++) strings.get(i);
+        return strings.decoded;
+    }
+
+    @Override
+    String[] stringCache() {
+        return new String[strings.size()]; // Do programa: ele guarda as instâncias canônicas
+    }
+
+    @Override
+    public int globalCount() {
+        return globalNames.size();
+    }
+
+    @Override
+    public String getGlobalName(int slot) {
+        return globalNames.get(slot);
+    }
+
+    /**
+     * Uma tabela de texto do .hbc (quantidade + offsets + bytes UTF-8),
+     * decodificada entrada por entrada conforme é pedida.
+     */
+    private static final class TextTable {
+        private final IntBuffer offsets;
+        private final ByteBuffer data;
+        final String[] decoded;
+
+        TextTable(ByteBuffer in) throws IOException {
+            int size = count(in);
+            offsets = in.slice(in.position(), (size + 1) * Integer.BYTES).asIntBuffer();
+            skip(in, (size + 1) * Integer.BYTES);
+            int bytes = offsets.get(size);
+            data = in.slice(in.position(), bytes);
+            skip(in, bytes);
+            decoded = new String[size];
+        }
+
+        int size() {
+            return decoded.length;
+        }
+
+        String get(int index) {
+            String value = decoded[index];
+            if (value == null) {
+                int start = offsets.get(index);
+                byte[] bytes = new byte[offsets.get(index + 1) - start];
+                data.get(start, bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded[index] = value;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package main.java.org.cmt.compilers.bytecode;
+
+/**
+ * Sink que acumula a saída na memória, para quem embute a VM e quer o
+ * texto impresso pelo script (por exemplo, para devolvê-lo numa resposta).
+ * Os números são formatados direto no builder, como em BufferedOutputSink.
+ */
+public final class MemoryOutputSink implements OutputSink {
+
+    private final StringBuilder text = new StringBuilder();
+    private final String lineSeparator = System.lineSeparator();
+
+    @Override
+    public void printNumber(double value) {
+        ValueFormatter.appendNumber(text, value);
+        text.append(lineSeparator);
+    }
+
+    @Override
+    public void printBoolean(boolean value) {
+        text.append(value).append(lineSeparator);
+    }
+
+    @Override
+    public void printNil() {
+        text.append("null").append(lineSeparator);
+    }
+
+    @Override
+    public void printString(String value) {
+        text.append(value).append(lineSeparator);
+    }
+
+    @Override
+    public void flush() {
+        // Nada a fazer: o texto já está na memória
+    }
+
+    /** Tudo o que foi impresso até agora. */
+    public String getOutput() {
+        return text.toString();
+    }
+
+    /** Descarta o texto acumulado (para reaproveitar o sink entre execuções). */
+    public void clear() {
+        text.setLength(0);
+    }
+}
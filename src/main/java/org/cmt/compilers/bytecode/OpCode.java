@@ -1,45 +1,276 @@
 package main.java.org.cmt.compilers.bytecode;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
 /**
  * Define os códigos de operação (Opcodes) que a nossa VM executará.
  * Cada instrução terá um byte que a representa.
+ *
+ * Os opcodes são constantes inteiras (e não um enum) para que a VM possa
+ * decodificar uma instrução sem alocar nada e fazer um `switch` denso
+ * diretamente sobre o byte lido do bytecode.
  */
-public enum OpCode {
+public final class OpCode {
+
+    private OpCode() {}
+
     // --- Opcodes Essenciais ---
-    OP_RETURN,     // Retorna de uma função (ou termina o script)
-    OP_CONSTANT,   // Carrega uma constante (ex: número, string) na pilha
+    public static final byte OP_RETURN = 0;        // Retorna de uma função (ou termina o script)
+    public static final byte OP_CONSTANT = 1;      // Carrega uma constante numérica (operando: índice de 1 byte no pool de números)
 
     // --- Opcodes Aritméticos ---
-    OP_NEGATE,     // Inverte o sinal de um número (ex: -5)
-    OP_ADD,        // Soma os dois valores no topo da pilha
-    OP_SUBTRACT,   // Subtrai os dois valores no topo da pilha
-    OP_MULTIPLY,   // Multiplica os dois valores no topo da pilha
-    OP_DIVIDE,     // Divide os dois valores no topo da pilha
+    public static final byte OP_NEGATE = 2;        // Inverte o sinal de um número (ex: -5)
+    public static final byte OP_ADD = 3;           // Soma os dois valores no topo da pilha
+    public static final byte OP_SUBTRACT = 4;      // Subtrai os dois valores no topo da pilha
+    public static final byte OP_MULTIPLY = 5;      // Multiplica os dois valores no topo da pilha
+    public static final byte OP_DIVIDE = 6;        // Divide os dois valores no topo da pilha
 
     // --- Manipulação de Pilha e Saída ---
-    OP_PRINT,      // Imprime o valor no topo da pilha
-    OP_POP,        // Desempilha/Descarta o valor do topo (usado após expressões sem efeito colateral)
-    OP_NIL,        // Empilha o valor literal 'nil' (nulo)
+    public static final byte OP_PRINT = 7;         // Imprime o valor no topo da pilha
+    public static final byte OP_POP = 8;           // Desempilha/Descarta o valor do topo (usado após expressões sem efeito colateral)
+    public static final byte OP_NIL = 9;           // Empilha o valor literal 'nil' (nulo)
 
     // --- Variáveis ---
-    OP_DEFINE_GLOBAL, // Cria uma nova variável global
-    OP_GET_GLOBAL,    // Lê o valor de uma variável global
-    OP_SET_GLOBAL,    // Atualiza o valor de uma variável global
-    OP_GET_LOCAL,     // Lê da pilha num índice específico (variável local)
-    OP_SET_LOCAL,     // Escreve na pilha num índice específico (variável local)
+    public static final byte OP_DEFINE_GLOBAL = 10; // Cria uma nova variável global (operando: slot de 2 bytes)
+    public static final byte OP_GET_GLOBAL = 11;    // Lê o valor de uma variável global (operando: slot de 2 bytes)
+    public static final byte OP_SET_GLOBAL = 12;    // Atualiza o valor de uma variável global (operando: slot de 2 bytes)
+    public static final byte OP_GET_LOCAL = 13;     // Lê da pilha num índice específico (variável local)
+    public static final byte OP_SET_LOCAL = 14;     // Escreve na pilha num índice específico (variável local)
 
     // --- CONTROLE DE FLUXO ---
-    OP_JUMP_IF_FALSE, // Salta para a frente se o topo da pilha for falso (if/while)
-    OP_JUMP,          // Salta para a frente incondicionalmente (usado no else)
-    OP_LOOP,          // Salta para trás (usado para repetir o while)
+    public static final byte OP_JUMP_IF_FALSE = 15; // Salta para a frente se o topo da pilha for falso (if/while)
+    public static final byte OP_JUMP = 16;          // Salta para a frente incondicionalmente (usado no else)
+    public static final byte OP_LOOP = 17;          // Salta para trás (usado para repetir o while)
 
     // --- Comparação e Lógica ---
-    OP_EQUAL,         // Compara igualdade (==) entre os dois valores do topo
-    OP_GREATER,       // Operação relacional: Maior que (>)
-    OP_LESS,          // Operação relacional: Menor que (<)
-    OP_NOT,           // Negação lógica (!). Inverte o booleano no topo.
+    public static final byte OP_EQUAL = 18;         // Compara igualdade (==) entre os dois valores do topo
+    public static final byte OP_GREATER = 19;       // Operação relacional: Maior que (>)
+    public static final byte OP_LESS = 20;          // Operação relacional: Menor que (<)
+    public static final byte OP_NOT = 21;           // Negação lógica (!). Inverte o booleano no topo.
 
     // --- Otimizações de Booleanos ---
-    OP_TRUE,          // Empilha o valor literal 'true' (otimização de espaço)
-    OP_FALSE          // Empilha o valor literal 'false' (otimização de espaço)
-}
\ No newline at end of file
+    public static final byte OP_TRUE = 22;          // Empilha o valor literal 'true' (otimização de espaço)
+    public static final byte OP_FALSE = 23;         // Empilha o valor literal 'false' (otimização de espaço)
+
+    // --- Constantes (formas largas e pool de strings) ---
+    public static final byte OP_CONSTANT_LONG = 24; // Como OP_CONSTANT, mas com índice de 3 bytes (pools com mais de 256 números)
+    public static final byte OP_STRING = 25;        // Carrega uma string do pool de strings (índice de 1 byte)
+    public static final byte OP_STRING_LONG = 26;   // Como OP_STRING, mas com índice de 3 bytes
+
+    // --- Especializados por tipo (operandos comprovadamente numéricos pelo Compilador) ---
+    public static final byte OP_ADD_NUM = 27;       // Soma de dois números (sem verificação de tipo)
+    public static final byte OP_SUBTRACT_NUM = 28;  // Subtração de dois números
+    public static final byte OP_MULTIPLY_NUM = 29;  // Multiplicação de dois números
+    public static final byte OP_DIVIDE_NUM = 30;    // Divisão de dois números
+    public static final byte OP_LESS_NUM = 31;      // Menor que (<) entre dois números
+    public static final byte OP_GREATER_NUM = 32;   // Maior que (>) entre dois números
+    public static final byte OP_CHECK_NUMBER = 33;  // Erro de execução se o topo não for número (atribuição a var int/float)
+
+    // --- Formas "aceleradas" (quickening): a VM reescreve o opcode genérico no próprio
+    // bytecode depois de ver os tipos dos operandos; se a guarda falhar, volta ao genérico ---
+    public static final byte OP_QADD_NUM = 34;      // OP_ADD visto com dois números
+    public static final byte OP_QSUBTRACT_NUM = 35; // OP_SUBTRACT visto com dois números
+    public static final byte OP_QMULTIPLY_NUM = 36; // OP_MULTIPLY visto com dois números
+    public static final byte OP_QDIVIDE_NUM = 37;   // OP_DIVIDE visto com dois números
+    public static final byte OP_QLESS_NUM = 38;     // OP_LESS visto com dois números
+    public static final byte OP_QGREATER_NUM = 39;  // OP_GREATER visto com dois números
+    public static final byte OP_QEQUAL_NUM = 40;    // OP_EQUAL visto com dois números
+    public static final byte OP_QADD_STR = 41;      // OP_ADD visto como concatenação (algum operando é string)
+
+    // --- Superinstruções: sequências frequentes fundidas numa só instrução ---
+    public static final byte OP_INC_LOCAL = 42;     // x = x + 1 como comando (operando: slot de 1 byte); não empilha nada
+    public static final byte OP_DEC_LOCAL = 43;     // x = x - 1 como comando (operando: slot de 1 byte)
+    public static final byte OP_INC_GLOBAL = 44;    // Como OP_INC_LOCAL, para globais (slot de 2 bytes)
+    public static final byte OP_DEC_GLOBAL = 45;    // Como OP_DEC_LOCAL, para globais (slot de 2 bytes)
+    public static final byte OP_LESS_LOCAL_LOCAL = 46; // GET_LOCAL a; GET_LOCAL b; LESS (operandos: dois slots de 1 byte)
+    public static final byte OP_SET_LOCAL_POP = 47;  // SET_LOCAL; POP (atribuição usada como comando)
+    public static final byte OP_SET_GLOBAL_POP = 48; // SET_GLOBAL; POP (slot de 2 bytes)
+
+    // --- Laço numérico (for i in N) ---
+    // Operandos: slot de 1 byte do iterador (o limite fica no slot anterior) + salto de 2 bytes
+    public static final byte OP_FOR_PREP = 49;      // Testa i < limite antes da 1ª volta; se falso salta para a frente (saída)
+    public static final byte OP_FOR_LOOP = 50;      // i++, testa i < limite e, se verdadeiro, salta para trás (corpo)
+
+    // --- Gerados pelo otimizador peephole ---
+    public static final byte OP_POPN = 51;          // Descarta n valores do topo (operando: n em 1 byte)
+
+    // --- Comparações nativas (semântica IEEE 754: qualquer comparação com NaN é false, exceto !=) ---
+    public static final byte OP_GREATER_EQUAL = 52;     // Maior ou igual (>=)
+    public static final byte OP_LESS_EQUAL = 53;        // Menor ou igual (<=)
+    public static final byte OP_NOT_EQUAL = 54;         // Diferente (!=)
+    public static final byte OP_GREATER_EQUAL_NUM = 55; // >= entre dois números (sem verificação de tipo)
+    public static final byte OP_LESS_EQUAL_NUM = 56;    // <= entre dois números
+    public static final byte OP_QGREATER_EQUAL_NUM = 57; // OP_GREATER_EQUAL visto com dois números
+    public static final byte OP_QLESS_EQUAL_NUM = 58;    // OP_LESS_EQUAL visto com dois números
+    public static final byte OP_QNOT_EQUAL_NUM = 59;     // OP_NOT_EQUAL visto com dois números
+    public static final byte OP_LESS_EQUAL_LOCAL_LOCAL = 60; // GET_LOCAL a; GET_LOCAL b; LESS_EQUAL (dois slots de 1 byte)
+
+    // --- Desvios condicionais compilados direto das condições (salto de 2 bytes, para a frente) ---
+    public static final byte OP_POP_JUMP_IF_FALSE = 61; // Desempilha a condição e salta se ela for falsa
+    public static final byte OP_POP_JUMP_IF_TRUE = 62;  // Desempilha a condição e salta se ela for verdadeira
+    public static final byte OP_JUMP_IF_TRUE = 63;      // Salta se o topo for verdadeiro, sem desempilhar (valor do 'or')
+    // Comparar e desviar: desempilham os dois operandos e saltam se a comparação NÃO vale
+    public static final byte OP_JUMP_IF_NOT_LESS = 64;          // salta se !(a < b)
+    public static final byte OP_JUMP_IF_NOT_GREATER = 65;       // salta se !(a > b)
+    public static final byte OP_JUMP_IF_NOT_LESS_EQUAL = 66;    // salta se !(a <= b)
+    public static final byte OP_JUMP_IF_NOT_GREATER_EQUAL = 67; // salta se !(a >= b)
+    public static final byte OP_JUMP_IF_NOT_EQUAL = 68;         // salta se a != b (negação de ==)
+    public static final byte OP_JUMP_IF_EQUAL = 69;             // salta se a == b (negação de !=)
+
+    // --- Desvios condicionais para trás (fim do laço while em forma rodada; salto de 2 bytes) ---
+    public static final byte OP_LOOP_IF_TRUE = 70;          // Desempilha a condição e volta se ela for verdadeira
+    public static final byte OP_LOOP_IF_FALSE = 71;         // Desempilha a condição e volta se ela for falsa
+    // Comparar e voltar: desempilham os dois operandos e voltam se a comparação vale
+    public static final byte OP_LOOP_IF_LESS = 72;          // volta se a < b
+    public static final byte OP_LOOP_IF_GREATER = 73;       // volta se a > b
+    public static final byte OP_LOOP_IF_LESS_EQUAL = 74;    // volta se a <= b
+    public static final byte OP_LOOP_IF_GREATER_EQUAL = 75; // volta se a >= b
+    public static final byte OP_LOOP_IF_EQUAL = 76;         // volta se a == b
+    public static final byte OP_LOOP_IF_NOT_EQUAL = 77;     // volta se a != b
+
+    // --- Concatenação em cadeia ---
+    public static final byte OP_CONCAT = 78;                // [n] desempilha n valores (o primeiro é string) e empilha o texto deles
+
+    /** Quantidade de opcodes definidos (todos os valores estão em 0..COUNT-1). */
+    public static final int COUNT;
+
+    // Nome de cada opcode, para o Debug (preenchido a partir dos campos acima)
+    private static final String[] NAMES;
+
+    static {
+        String[] names = new String[256];
+        int count = 0;
+        for (Field field : OpCode.class.getDeclaredFields()) {
+            if (field.getType() == byte.class && Modifier.isStatic(field.getModifiers())
+                    && field.getName().startsWith("OP_")) {
+                try {
+                    int value = field.getByte(null) & 0xFF;
+                    if (names[value] != null) {
+                        throw new IllegalStateException("Opcode duplicado: " + names[value] + " e " + field.getName());
+                    }
+                    names[value] = field.getName();
+                    count = Math.max(count, value + 1);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        COUNT = count;
+        NAMES = names;
+    }
+
+    /**
+     * Tamanho total da instrução em bytes (opcode + operandos), ou -1 se o
+     * byte não é um opcode. Usado por quem percorre o bytecode instrução a
+     * instrução (ex: o otimizador peephole).
+     */
+    public static int length(int opcode) {
+        switch (opcode & 0xFF) {
+            case OP_CONSTANT:
+            case OP_STRING:
+            case OP_GET_LOCAL:
+            case OP_SET_LOCAL:
+            case OP_INC_LOCAL:
+            case OP_DEC_LOCAL:
+            case OP_SET_LOCAL_POP:
+            case OP_POPN:
+            case OP_CONCAT:
+                return 2;
+            case OP_DEFINE_GLOBAL:
+            case OP_GET_GLOBAL:
+            case OP_SET_GLOBAL:
+            case OP_INC_GLOBAL:
+            case OP_DEC_GLOBAL:
+            case OP_SET_GLOBAL_POP:
+            case OP_LESS_LOCAL_LOCAL:
+            case OP_LESS_EQUAL_LOCAL_LOCAL:
+            case OP_JUMP:
+            case OP_JUMP_IF_FALSE:
+            case OP_LOOP:
+            case OP_POP_JUMP_IF_FALSE:
+            case OP_POP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_NOT_LESS:
+            case OP_JUMP_IF_NOT_GREATER:
+            case OP_JUMP_IF_NOT_LESS_EQUAL:
+            case OP_JUMP_IF_NOT_GREATER_EQUAL:
+            case OP_JUMP_IF_NOT_EQUAL:
+            case OP_JUMP_IF_EQUAL:
+            case OP_LOOP_IF_TRUE:
+            case OP_LOOP_IF_FALSE:
+            case OP_LOOP_IF_LESS:
+            case OP_LOOP_IF_GREATER:
+            case OP_LOOP_IF_LESS_EQUAL:
+            case OP_LOOP_IF_GREATER_EQUAL:
+            case OP_LOOP_IF_EQUAL:
+            case OP_LOOP_IF_NOT_EQUAL:
+                return 3;
+            case OP_CONSTANT_LONG:
+            case OP_STRING_LONG:
+            case OP_FOR_PREP:
+            case OP_FOR_LOOP:
+                return 4;
+            default:
+                return name(opcode) == null ? -1 : 1;
+        }
+    }
+
+    /**
+     * Se o opcode é um salto: termina com uma distância de 2 bytes, contada
+     * a partir do fim da instrução (para trás se isBackward).
+     */
+    public static boolean isJump(int opcode) {
+        switch ((byte) opcode) {
+            case OP_JUMP:
+            case OP_JUMP_IF_FALSE:
+            case OP_POP_JUMP_IF_FALSE:
+            case OP_POP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_NOT_LESS:
+            case OP_JUMP_IF_NOT_GREATER:
+            case OP_JUMP_IF_NOT_LESS_EQUAL:
+            case OP_JUMP_IF_NOT_GREATER_EQUAL:
+            case OP_JUMP_IF_NOT_EQUAL:
+            case OP_JUMP_IF_EQUAL:
+            case OP_LOOP:
+            case OP_LOOP_IF_TRUE:
+            case OP_LOOP_IF_FALSE:
+            case OP_LOOP_IF_LESS:
+            case OP_LOOP_IF_GREATER:
+            case OP_LOOP_IF_LESS_EQUAL:
+            case OP_LOOP_IF_GREATER_EQUAL:
+            case OP_LOOP_IF_EQUAL:
+            case OP_LOOP_IF_NOT_EQUAL:
+            case OP_FOR_PREP:
+            case OP_FOR_LOOP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Se o salto volta (ip -= distância) em vez de avançar. */
+    public static boolean isBackward(int opcode) {
+        switch ((byte) opcode) {
+            case OP_LOOP:
+            case OP_FOR_LOOP:
+            case OP_LOOP_IF_TRUE:
+            case OP_LOOP_IF_FALSE:
+            case OP_LOOP_IF_LESS:
+            case OP_LOOP_IF_GREATER:
+            case OP_LOOP_IF_LESS_EQUAL:
+            case OP_LOOP_IF_GREATER_EQUAL:
+            case OP_LOOP_IF_EQUAL:
+            case OP_LOOP_IF_NOT_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Nome legível do opcode (ex: "OP_ADD"), ou null se o byte não é um opcode. */
+    public static String name(int opcode) {
+        return NAMES[opcode & 0xFF];
+    }
+}
@@ -0,0 +1,37 @@
+package main.java.org.cmt.compilers.bytecode;
+
+/**
+ * Destino da saída de OP_PRINT. Cada chamada imprime um valor seguido de
+ * quebra de linha, no texto definido por {@link ValueFormatter}.
+ *
+ * A VM escolhe o método pelo tipo do valor, então números e booleanos
+ * chegam sem boxing e a implementação pode escrever os bytes direto num
+ * buffer, sem montar uma String intermediária.
+ *
+ * Implementações:
+ * - {@link BufferedOutputSink}: buffer de bytes sobre um OutputStream (padrão);
+ * - {@link MemoryOutputSink}: acumula o texto na memória (para embutir a VM);
+ * - {@link #NULL}: descarta tudo (para benchmarks).
+ */
+public interface OutputSink {
+
+    OutputSink NULL = new OutputSink() {
+        @Override public void printNumber(double value) {}
+        @Override public void printBoolean(boolean value) {}
+        @Override public void printNil() {}
+        @Override public void printString(String value) {}
+        @Override public void flush() {}
+    };
+
+    void printNumber(double value);
+
+    void printBoolean(boolean value);
+
+    /** Imprime o valor nil (como o println do Java imprime null). */
+    void printNil();
+
+    void printString(String value);
+
+    /** Entrega ao destino tudo o que estiver no buffer. */
+    void flush();
+}
@@ -0,0 +1,310 @@
+// Arquivo: PeepholeOptimizer.java
+package main.java.org.cmt.compilers.bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Otimizador "peephole": olha para pequenas janelas de instruções de um
+ * chunk já finalizado e reescreve padrões desnecessários.
+ *
+ * Padrões tratados:
+ * - OP_NIL; OP_POP          -> removidos (empilhar e descartar nil não tem efeito);
+ * - salto para outro salto  -> vai direto ao destino final (jump threading);
+ * - OP_JUMP para a instrução seguinte -> removido;
+ * - sequência de OP_POP     -> um único OP_POPN n;
+ * - OP_EQUAL; OP_NOT        -> OP_NOT_EQUAL (e OP_NOT_EQUAL; OP_NOT -> OP_EQUAL).
+ *   O `a != b` já sai do Compiler como OP_NOT_EQUAL; o padrão só aparece
+ *   na negação explícita em expressão, como `print !(a == b);` (numa
+ *   condição de if/while o Compiler já inverte o desvio).
+ *
+ * Já OP_LESS; OP_NOT (ex: `!(a < b)`) NÃO vira OP_GREATER_EQUAL: com NaN
+ * o primeiro dá true e o segundo false.
+ *
+ * O código é decodificado numa lista de instruções; cada salto guarda o
+ * índice da instrução de destino (e não o offset), então remover
+ * instruções não estraga os destinos. No fim tudo é recodificado, os
+ * offsets de todos os saltos (OP_JUMP, OP_LOOP, os condicionais e os de
+ * comparar e desviar, OP_FOR_PREP / OP_FOR_LOOP) são recalculados e a
+ * tabela de linhas é refeita.
+ *
+ * As distâncias dos saltos têm 16 bits. Como as instruções só são
+ * removidas (ou trocadas por outras menores), a distância de um salto
+ * nunca cresce em relação à que teria no código original até o mesmo
+ * destino; por isso o jump threading só segue um salto se o novo destino
+ * estiver a no máximo 65535 bytes no código original. Um salto cujo
+ * destino final fique longe demais é encadeado só até o último destino
+ * que cabe, e os demais padrões continuam valendo.
+ */
+public final class PeepholeOptimizer {
+
+    private PeepholeOptimizer() {}
+
+    // Uma instrução decodificada
+    private static final class Instruction {
+        byte opcode;
+        final byte[] bytes; // Opcode + operandos, como estavam no chunk
+        final int line;
+        final int offset;   // Offset no código original
+        int target = -1;    // Índice da instrução de destino (só para saltos)
+        boolean removed;
+
+        Instruction(byte[] bytes, int line, int offset) {
+            this.opcode = bytes[0];
+            this.bytes = bytes;
+            this.line = line;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Otimiza o chunk no próprio lugar. Se encontrar algo que não sabe
+     * tratar (ex: um opcode desconhecido), deixa o chunk como estava.
+     * Deve rodar antes de CompiledProgram.of: um chunk já congelado num
+     * programa é recusado com IllegalStateException.
+     */
+    public static void optimize(Chunk chunk) {
+        chunk.ensureNotFrozen();
+        List<Instruction> code = decode(chunk);
+        if (code == null) return;
+
+        boolean changed = true;
+        while (changed) {
+            changed = removeNilPop(code);
+            changed |= threadJumps(code);
+            changed |= removeJumpsToNext(code);
+            changed |= fuseNegatedEquality(code);
+        }
+        mergePops(code);
+
+        encode(chunk, code);
+    }
+
+    // --- Decodificação ---
+
+    private static List<Instruction> decode(Chunk chunk) {
+        byte[] bytes = chunk.getCode();
+        int[] indexAt = new int[bytes.length + 1]; // offset -> índice da instrução (-1 no meio de uma)
+        Arrays.fill(indexAt, -1);
+
+        List<Instruction> code = new ArrayList<>();
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = OpCode.length(bytes[offset]);
+            if (length < 0 || offset + length > bytes.length) return null;
+            indexAt[offset] = code.size();
+            code.add(new Instruction(Arrays.copyOfRange(bytes, offset, offset + length),
+                    chunk.getLine(offset), offset));
+            offset += length;
+        }
+
+        // Converte os offsets dos saltos em índices de instrução
+        offset = 0;
+        for (Instruction instruction : code) {
+            int end = offset + instruction.bytes.length;
+            if (OpCode.isJump(instruction.opcode)) {
+                int distance = readShort(instruction.bytes, instruction.bytes.length - 2);
+                int destination = OpCode.isBackward(instruction.opcode) ? end - distance : end + distance;
+                if (destination < 0 || destination >= bytes.length || indexAt[destination] < 0) return null;
+                instruction.target = indexAt[destination];
+            }
+            offset = end;
+        }
+        return code;
+    }
+
+    // --- Padrões ---
+
+    // OP_NIL; OP_POP -> nada (desde que ninguém salte para o meio do par)
+    private static boolean removeNilPop(List<Instruction> code) {
+        boolean[] targets = jumpTargets(code);
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            Instruction nil = code.get(i);
+            if (nil.removed || nil.opcode != OpCode.OP_NIL) continue;
+            int next = nextLive(code, i + 1);
+            if (next < code.size() && code.get(next).opcode == OpCode.OP_POP && !targets[next]) {
+                nil.removed = true;
+                code.get(next).removed = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Salto cujo destino é um salto incondicional passa a apontar para o
+     * destino final. Os saltos condicionais para a frente (e o OP_FOR_PREP)
+     * só seguem destinos à frente deles. Um destino a mais de 65535 bytes
+     * (no código original) não é seguido: a distância não caberia no salto.
+     */
+    private static boolean threadJumps(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            Instruction jump = code.get(i);
+            if (jump.removed || !OpCode.isJump(jump.opcode)) continue;
+            boolean unconditional = jump.opcode == OpCode.OP_JUMP || jump.opcode == OpCode.OP_LOOP;
+            // Os condicionais para trás (OP_FOR_LOOP, OP_LOOP_IF_*) ficam como estão
+            if (!unconditional && OpCode.isBackward(jump.opcode)) continue;
+
+            int destination = nextLive(code, jump.target);
+            // Limite de passos para não ficar preso num ciclo de saltos
+            for (int steps = 0; steps < code.size() && destination < code.size(); steps++) {
+                Instruction next = code.get(destination);
+                if (next.opcode != OpCode.OP_JUMP && next.opcode != OpCode.OP_LOOP) break;
+                int further = nextLive(code, next.target);
+                if (further == destination) break;
+                if (!unconditional && further <= i) break;
+                if (!fits(code, i, further)) break;
+                destination = further;
+            }
+
+            if (destination != nextLive(code, jump.target)) {
+                jump.target = destination;
+                if (unconditional) {
+                    // Um salto incondicional pode mudar de sentido
+                    jump.opcode = destination > i ? OpCode.OP_JUMP : OpCode.OP_LOOP;
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // OP_JUMP que cai exatamente na instrução seguinte não faz nada
+    private static boolean removeJumpsToNext(List<Instruction> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            Instruction jump = code.get(i);
+            if (jump.removed || jump.opcode != OpCode.OP_JUMP) continue;
+            if (nextLive(code, jump.target) == nextLive(code, i + 1)) {
+                jump.removed = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // OP_EQUAL; OP_NOT -> OP_NOT_EQUAL e vice-versa (a igualdade sempre dá um booleano).
+    // Vem de `!(a == b)` / `!(a != b)` fora de condições; `a != b` já é OP_NOT_EQUAL.
+    private static boolean fuseNegatedEquality(List<Instruction> code) {
+        boolean[] targets = jumpTargets(code);
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            Instruction equality = code.get(i);
+            if (equality.removed
+                    || (equality.opcode != OpCode.OP_EQUAL && equality.opcode != OpCode.OP_NOT_EQUAL)) continue;
+            int next = nextLive(code, i + 1);
+            if (next < code.size() && code.get(next).opcode == OpCode.OP_NOT && !targets[next]) {
+                equality.opcode = equality.opcode == OpCode.OP_EQUAL ? OpCode.OP_NOT_EQUAL : OpCode.OP_EQUAL;
+                code.get(next).removed = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Sequências de OP_POP (sem destino de salto no meio) -> OP_POPN n
+    private static void mergePops(List<Instruction> code) {
+        boolean[] targets = jumpTargets(code);
+        for (int i = 0; i < code.size(); i++) {
+            Instruction first = code.get(i);
+            if (first.removed || first.opcode != OpCode.OP_POP) continue;
+
+            int n = 1;
+            int next = nextLive(code, i + 1);
+            while (n < 255 && next < code.size() && code.get(next).opcode == OpCode.OP_POP && !targets[next]) {
+                code.get(next).removed = true;
+                n++;
+                next = nextLive(code, next + 1);
+            }
+            if (n > 1) {
+                code.set(i, popN(first, n));
+            }
+        }
+    }
+
+    private static Instruction popN(Instruction pop, int n) {
+        return new Instruction(new byte[] { OpCode.OP_POPN, (byte) n }, pop.line, pop.offset);
+    }
+
+    // --- Recodificação ---
+
+    private static void encode(Chunk chunk, List<Instruction> code) {
+        // 1. Offset novo de cada instrução viva (os tamanhos não mudam)
+        int[] newOffset = new int[code.size() + 1];
+        int size = 0;
+        for (int i = 0; i < code.size(); i++) {
+            newOffset[i] = size;
+            if (!code.get(i).removed) size += code.get(i).bytes.length;
+        }
+        newOffset[code.size()] = size;
+
+        // 2. Copia os bytes, recalculando a distância dos saltos
+        byte[] bytes = new byte[size];
+        int[] lines = new int[size];
+        for (int i = 0; i < code.size(); i++) {
+            Instruction instruction = code.get(i);
+            if (instruction.removed) continue;
+            int offset = newOffset[i];
+            int length = instruction.bytes.length;
+            System.arraycopy(instruction.bytes, 0, bytes, offset, length);
+            bytes[offset] = instruction.opcode;
+            Arrays.fill(lines, offset, offset + length, instruction.line);
+
+            if (OpCode.isJump(instruction.opcode)) {
+                int destination = newOffset[nextLive(code, instruction.target)];
+                int end = offset + length;
+                int distance = OpCode.isBackward(instruction.opcode) ? end - destination : destination - end;
+                if (distance < 0 || distance > 65535) {
+                    // Não deveria acontecer: o threadJumps só aceita destinos que cabem
+                    throw new IllegalStateException("Distância de salto fora do limite no offset " + offset + ": " + distance);
+                }
+                bytes[end - 2] = (byte) ((distance >> 8) & 0xff);
+                bytes[end - 1] = (byte) (distance & 0xff);
+            }
+        }
+        chunk.replaceCode(bytes, lines);
+    }
+
+    // --- Auxiliares ---
+
+    /**
+     * Se um salto da instrução `jump` até a instrução `destination` cabe em
+     * 16 bits, medindo no código original (no código final só pode ser menor).
+     */
+    private static boolean fits(List<Instruction> code, int jump, int destination) {
+        Instruction instruction = code.get(jump);
+        int end = instruction.offset + instruction.bytes.length;
+        int target;
+        if (destination < code.size()) {
+            target = code.get(destination).offset;
+        } else {
+            Instruction last = code.get(code.size() - 1);
+            target = last.offset + last.bytes.length;
+        }
+        return Math.abs(target - end) <= 65535;
+    }
+
+    // Primeira instrução viva a partir de `index` (code.size() se não houver)
+    private static int nextLive(List<Instruction> code, int index) {
+        while (index < code.size() && code.get(index).removed) index++;
+        return index;
+    }
+
+    // Quais instruções (vivas) são destino de algum salto vivo
+    private static boolean[] jumpTargets(List<Instruction> code) {
+        boolean[] targets = new boolean[code.size() + 1];
+        for (Instruction instruction : code) {
+            if (!instruction.removed && OpCode.isJump(instruction.opcode)) {
+                targets[nextLive(code, instruction.target)] = true;
+            }
+        }
+        return targets;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+}
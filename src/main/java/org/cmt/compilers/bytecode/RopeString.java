@@ -0,0 +1,83 @@
+package main.java.org.cmt.compilers.bytecode;
+
+/**
+ * Valor string da VM feito para concatenações repetidas (`s = s + x`).
+ *
+ * Cada RopeString enxerga os primeiros `length` caracteres de um
+ * StringBuilder compartilhado. O builder só cresce no fim, então esse
+ * prefixo nunca muda e o valor continua imutável para o script.
+ *
+ * Se ninguém escreveu além do fim deste valor (ele é a "ponta" do
+ * builder), append escreve no próprio builder e devolve um valor um pouco
+ * mais longo, sem copiar o que já existe: o laço fica O(n) no total em vez
+ * de O(n²). Quando o valor não é a ponta (ex: `t = s + "a"; u = s + "b"`),
+ * append copia o prefixo para um builder novo, como uma concatenação comum.
+ *
+ * O texto "achatado" (String) só é montado quando o valor é impresso,
+ * comparado ou convertido, e fica guardado para os usos seguintes.
+ *
+ * Só é usado dentro de uma VM (que é de uma thread só), por isso não há
+ * sincronização.
+ */
+final class RopeString implements CharSequence {
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat; // Cache de toString()
+
+    private RopeString(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    /** Concatenação de dois textos num builder novo, com folga para mais appends. */
+    static RopeString concat(String left, String right) {
+        int total = left.length() + right.length();
+        StringBuilder builder = new StringBuilder(Math.max(16, total * 2));
+        builder.append(left).append(right);
+        return new RopeString(builder, total);
+    }
+
+    /** Adota um builder já preenchido (o valor é todo o seu conteúdo). */
+    static RopeString of(StringBuilder builder) {
+        return new RopeString(builder, builder.length());
+    }
+
+    /** Este valor seguido de `suffix` (no mesmo builder, se este for a ponta). */
+    RopeString append(String suffix) {
+        if (builder.length() == length) {
+            builder.append(suffix);
+            return new RopeString(builder, builder.length());
+        }
+        StringBuilder copy = new StringBuilder(Math.max(16, (length + suffix.length()) * 2));
+        copy.append(builder, 0, length).append(suffix);
+        return new RopeString(copy, copy.length());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new StringIndexOutOfBoundsException(index);
+        return builder.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /** O texto achatado (montado uma vez e guardado). */
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            text = builder.substring(0, length);
+            flat = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,65 @@
+package main.java.org.cmt.compilers.bytecode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tabela de strings internadas de uma execução da VM.
+ *
+ * Parte das strings do pool do programa (cada texto do pool já é uma
+ * instância só, ver {@link CompiledProgram#constants()}) e recebe as
+ * strings curtas que a VM produz nas concatenações: um texto que já está
+ * na tabela devolve a instância de lá. Enquanto todo texto curto da
+ * execução passa por aqui, dois textos curtos iguais são a mesma instância,
+ * e a igualdade da VM pode recusar instâncias diferentes sem olhar os
+ * caracteres (ver identityDecides).
+ *
+ * Textos maiores que MAX_LENGTH não são internados (raramente se repetem
+ * e custariam memória à toa); eles e as RopeStrings são comparados pelo
+ * conteúdo. A tabela guarda no máximo MAX_ENTRIES textos produzidos: ao
+ * encher ela para de internar e a igualdade volta a comparar o conteúdo de
+ * todas as strings, então um laço que gera textos sempre novos não faz a
+ * memória crescer.
+ *
+ * Cada VM cria uma por execução (ela morre junto com o interpret) e não
+ * há sincronização: a VM é de uma thread só.
+ */
+final class StringTable {
+
+    /** Maior texto (em caracteres) que é internado. */
+    static final int MAX_LENGTH = 128;
+    /** Quantos textos produzidos pela execução a tabela guarda. */
+    static final int MAX_ENTRIES = 4096;
+
+    private final CompiledProgram program;
+    private Map<String, String> constants; // Textos do pool (null até o primeiro intern)
+    private final Map<String, String> produced = new HashMap<>();
+    private boolean complete = true; // false depois que a tabela encheu
+
+    StringTable(CompiledProgram program) {
+        this.program = program;
+    }
+
+    /** A instância canônica de `value`, ou o próprio `value` se ele não for internado. */
+    String intern(String value) {
+        if (!complete || value.length() > MAX_LENGTH) return value;
+        if (constants == null) constants = program.constants();
+        String existing = constants.get(value);
+        if (existing == null) existing = produced.get(value);
+        if (existing != null) return existing;
+        if (produced.size() == MAX_ENTRIES) {
+            complete = false; // Daqui em diante há textos curtos fora da tabela
+            return value;
+        }
+        produced.put(value, value);
+        return value;
+    }
+
+    /**
+     * true se `a` e `b` são textos internados: então são iguais só se forem
+     * a mesma instância. false quando é preciso comparar o conteúdo.
+     */
+    boolean identityDecides(String a, String b) {
+        return complete && a.length() <= MAX_LENGTH && b.length() <= MAX_LENGTH;
+    }
+}
@@ -0,0 +1,99 @@
+package main.java.org.cmt.compilers.bytecode;
+
+/**
+ * Engine de despacho por `switch` denso: os opcodes são constantes
+ * contíguas (0..N), então o JIT gera uma tabela de saltos (tableswitch)
+ * e pode fazer inline de cada método `op...` no seu `case`.
+ */
+final class SwitchDispatch implements DispatchEngine {
+
+    @Override
+    public void run(VM vm) {
+        for (;;) {
+            int instruction = vm.nextOpcode();
+
+            switch (instruction) {
+                case OpCode.OP_RETURN:         vm.opReturn(); return;
+                case OpCode.OP_CONSTANT:       vm.opConstant(); break;
+                case OpCode.OP_NEGATE:         vm.opNegate(); break;
+                case OpCode.OP_ADD:            vm.opAdd(); break;
+                case OpCode.OP_SUBTRACT:       vm.opSubtract(); break;
+                case OpCode.OP_MULTIPLY:       vm.opMultiply(); break;
+                case OpCode.OP_DIVIDE:         vm.opDivide(); break;
+                case OpCode.OP_PRINT:          vm.opPrint(); break;
+                case OpCode.OP_POP:            vm.opPop(); break;
+                case OpCode.OP_NIL:            vm.opNil(); break;
+                case OpCode.OP_DEFINE_GLOBAL:  vm.opDefineGlobal(); break;
+                case OpCode.OP_GET_GLOBAL:     vm.opGetGlobal(); break;
+                case OpCode.OP_SET_GLOBAL:     vm.opSetGlobal(); break;
+                case OpCode.OP_GET_LOCAL:      vm.opGetLocal(); break;
+                case OpCode.OP_SET_LOCAL:      vm.opSetLocal(); break;
+                case OpCode.OP_JUMP_IF_FALSE:  vm.opJumpIfFalse(); break;
+                case OpCode.OP_JUMP:           vm.opJump(); break;
+                case OpCode.OP_LOOP:           vm.opLoop(); break;
+                case OpCode.OP_EQUAL:          vm.opEqual(); break;
+                case OpCode.OP_GREATER:        vm.opGreater(); break;
+                case OpCode.OP_LESS:           vm.opLess(); break;
+                case OpCode.OP_NOT:            vm.opNot(); break;
+                case OpCode.OP_TRUE:           vm.opTrue(); break;
+                case OpCode.OP_FALSE:          vm.opFalse(); break;
+                case OpCode.OP_CONSTANT_LONG:  vm.opConstantLong(); break;
+                case OpCode.OP_STRING:         vm.opString(); break;
+                case OpCode.OP_STRING_LONG:    vm.opStringLong(); break;
+                case OpCode.OP_ADD_NUM:        vm.opAddNum(); break;
+                case OpCode.OP_SUBTRACT_NUM:   vm.opSubtractNum(); break;
+                case OpCode.OP_MULTIPLY_NUM:   vm.opMultiplyNum(); break;
+                case OpCode.OP_DIVIDE_NUM:     vm.opDivideNum(); break;
+                case OpCode.OP_LESS_NUM:       vm.opLessNum(); break;
+                case OpCode.OP_GREATER_NUM:    vm.opGreaterNum(); break;
+                case OpCode.OP_CHECK_NUMBER:   vm.opCheckNumber(); break;
+                case OpCode.OP_QADD_NUM:       vm.opQAddNum(); break;
+                case OpCode.OP_QSUBTRACT_NUM:  vm.opQSubtractNum(); break;
+                case OpCode.OP_QMULTIPLY_NUM:  vm.opQMultiplyNum(); break;
+                case OpCode.OP_QDIVIDE_NUM:    vm.opQDivideNum(); break;
+                case OpCode.OP_QLESS_NUM:      vm.opQLessNum(); break;
+                case OpCode.OP_QGREATER_NUM:   vm.opQGreaterNum(); break;
+                case OpCode.OP_QEQUAL_NUM:     vm.opQEqualNum(); break;
+                case OpCode.OP_QADD_STR:       vm.opQAddStr(); break;
+                case OpCode.OP_INC_LOCAL:      vm.opIncLocal(); break;
+                case OpCode.OP_DEC_LOCAL:      vm.opDecLocal(); break;
+                case OpCode.OP_INC_GLOBAL:     vm.opIncGlobal(); break;
+                case OpCode.OP_DEC_GLOBAL:     vm.opDecGlobal(); break;
+                case OpCode.OP_LESS_LOCAL_LOCAL: vm.opLessLocalLocal(); break;
+                case OpCode.OP_SET_LOCAL_POP:  vm.opSetLocalPop(); break;
+                case OpCode.OP_SET_GLOBAL_POP: vm.opSetGlobalPop(); break;
+                case OpCode.OP_FOR_PREP:       vm.opForPrep(); break;
+                case OpCode.OP_FOR_LOOP:       vm.opForLoop(); break;
+                case OpCode.OP_POPN:           vm.opPopN(); break;
+                case OpCode.OP_GREATER_EQUAL:  vm.opGreaterEqual(); break;
+                case OpCode.OP_LESS_EQUAL:     vm.opLessEqual(); break;
+                case OpCode.OP_NOT_EQUAL:      vm.opNotEqual(); break;
+                case OpCode.OP_GREATER_EQUAL_NUM: vm.opGreaterEqualNum(); break;
+                case OpCode.OP_LESS_EQUAL_NUM: vm.opLessEqualNum(); break;
+                case OpCode.OP_QGREATER_EQUAL_NUM: vm.opQGreaterEqualNum(); break;
+                case OpCode.OP_QLESS_EQUAL_NUM: vm.opQLessEqualNum(); break;
+                case OpCode.OP_QNOT_EQUAL_NUM: vm.opQNotEqualNum(); break;
+                case OpCode.OP_LESS_EQUAL_LOCAL_LOCAL: vm.opLessEqualLocalLocal(); break;
+                case OpCode.OP_POP_JUMP_IF_FALSE: vm.opPopJumpIfFalse(); break;
+                case OpCode.OP_POP_JUMP_IF_TRUE: vm.opPopJumpIfTrue(); break;
+                case OpCode.OP_JUMP_IF_TRUE:   vm.opJumpIfTrue(); break;
+                case OpCode.OP_JUMP_IF_NOT_LESS: vm.opJumpIfNotLess(); break;
+                case OpCode.OP_JUMP_IF_NOT_GREATER: vm.opJumpIfNotGreater(); break;
+                case OpCode.OP_JUMP_IF_NOT_LESS_EQUAL: vm.opJumpIfNotLessEqual(); break;
+                case OpCode.OP_JUMP_IF_NOT_GREATER_EQUAL: vm.opJumpIfNotGreaterEqual(); break;
+                case OpCode.OP_JUMP_IF_NOT_EQUAL: vm.opJumpIfNotEqual(); break;
+                case OpCode.OP_JUMP_IF_EQUAL:  vm.opJumpIfEqual(); break;
+                case OpCode.OP_LOOP_IF_TRUE:   vm.opLoopIfTrue(); break;
+                case OpCode.OP_LOOP_IF_FALSE:  vm.opLoopIfFalse(); break;
+                case OpCode.OP_LOOP_IF_LESS:   vm.opLoopIfLess(); break;
+                case OpCode.OP_LOOP_IF_GREATER: vm.opLoopIfGreater(); break;
+                case OpCode.OP_LOOP_IF_LESS_EQUAL: vm.opLoopIfLessEqual(); break;
+                case OpCode.OP_LOOP_IF_GREATER_EQUAL: vm.opLoopIfGreaterEqual(); break;
+                case OpCode.OP_LOOP_IF_EQUAL:  vm.opLoopIfEqual(); break;
+                case OpCode.OP_LOOP_IF_NOT_EQUAL: vm.opLoopIfNotEqual(); break;
+                case OpCode.OP_CONCAT:         vm.opConcat(); break;
+                default:                       vm.opUnknown(instruction);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package main.java.org.cmt.compilers.bytecode;
+
+/**
+ * Engine de despacho por tabela: um array de 256 objetos-instrução
+ * indexado diretamente pelo byte do opcode. Cada entrada chama o método
+ * `op...` correspondente da VM; bytes sem opcode caem numa instrução que
+ * reporta "opcode desconhecido".
+ */
+final class TableDispatch implements DispatchEngine {
+
+    /** Uma entrada da tabela: executa um opcode sobre o estado da VM. */
+    @FunctionalInterface
+    interface Instruction {
+        void execute(VM vm);
+    }
+
+    private static final Instruction[] TABLE = new Instruction[256];
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            final int opcode = i;
+            TABLE[i] = vm -> vm.opUnknown(opcode);
+        }
+        TABLE[OpCode.OP_RETURN] = VM::opReturn;
+        TABLE[OpCode.OP_CONSTANT] = VM::opConstant;
+        TABLE[OpCode.OP_NEGATE] = VM::opNegate;
+        TABLE[OpCode.OP_ADD] = VM::opAdd;
+        TABLE[OpCode.OP_SUBTRACT] = VM::opSubtract;
+        TABLE[OpCode.OP_MULTIPLY] = VM::opMultiply;
+        TABLE[OpCode.OP_DIVIDE] = VM::opDivide;
+        TABLE[OpCode.OP_PRINT] = VM::opPrint;
+        TABLE[OpCode.OP_POP] = VM::opPop;
+        TABLE[OpCode.OP_NIL] = VM::opNil;
+        TABLE[OpCode.OP_DEFINE_GLOBAL] = VM::opDefineGlobal;
+        TABLE[OpCode.OP_GET_GLOBAL] = VM::opGetGlobal;
+        TABLE[OpCode.OP_SET_GLOBAL] = VM::opSetGlobal;
+        TABLE[OpCode.OP_GET_LOCAL] = VM::opGetLocal;
+        TABLE[OpCode.OP_SET_LOCAL] = VM::opSetLocal;
+        TABLE[OpCode.OP_JUMP_IF_FALSE] = VM::opJumpIfFalse;
+        TABLE[OpCode.OP_JUMP] = VM::opJump;
+        TABLE[OpCode.OP_LOOP] = VM::opLoop;
+        TABLE[OpCode.OP_EQUAL] = VM::opEqual;
+        TABLE[OpCode.OP_GREATER] = VM::opGreater;
+        TABLE[OpCode.OP_LESS] = VM::opLess;
+        TABLE[OpCode.OP_NOT] = VM::opNot;
+        TABLE[OpCode.OP_TRUE] = VM::opTrue;
+        TABLE[OpCode.OP_FALSE] = VM::opFalse;
+        TABLE[OpCode.OP_CONSTANT_LONG] = VM::opConstantLong;
+        TABLE[OpCode.OP_STRING] = VM::opString;
+        TABLE[OpCode.OP_STRING_LONG] = VM::opStringLong;
+        TABLE[OpCode.OP_ADD_NUM] = VM::opAddNum;
+        TABLE[OpCode.OP_SUBTRACT_NUM] = VM::opSubtractNum;
+        TABLE[OpCode.OP_MULTIPLY_NUM] = VM::opMultiplyNum;
+        TABLE[OpCode.OP_DIVIDE_NUM] = VM::opDivideNum;
+        TABLE[OpCode.OP_LESS_NUM] = VM::opLessNum;
+        TABLE[OpCode.OP_GREATER_NUM] = VM::opGreaterNum;
+        TABLE[OpCode.OP_CHECK_NUMBER] = VM::opCheckNumber;
+        TABLE[OpCode.OP_QADD_NUM] = VM::opQAddNum;
+        TABLE[OpCode.OP_QSUBTRACT_NUM] = VM::opQSubtractNum;
+        TABLE[OpCode.OP_QMULTIPLY_NUM] = VM::opQMultiplyNum;
+        TABLE[OpCode.OP_QDIVIDE_NUM] = VM::opQDivideNum;
+        TABLE[OpCode.OP_QLESS_NUM] = VM::opQLessNum;
+        TABLE[OpCode.OP_QGREATER_NUM] = VM::opQGreaterNum;
+        TABLE[OpCode.OP_QEQUAL_NUM] = VM::opQEqualNum;
+        TABLE[OpCode.OP_QADD_STR] = VM::opQAddStr;
+        TABLE[OpCode.OP_INC_LOCAL] = VM::opIncLocal;
+        TABLE[OpCode.OP_DEC_LOCAL] = VM::opDecLocal;
+        TABLE[OpCode.OP_INC_GLOBAL] = VM::opIncGlobal;
+        TABLE[OpCode.OP_DEC_GLOBAL] = VM::opDecGlobal;
+        TABLE[OpCode.OP_LESS_LOCAL_LOCAL] = VM::opLessLocalLocal;
+        TABLE[OpCode.OP_SET_LOCAL_POP] = VM::opSetLocalPop;
+        TABLE[OpCode.OP_SET_GLOBAL_POP] = VM::opSetGlobalPop;
+        TABLE[OpCode.OP_FOR_PREP] = VM::opForPrep;
+        TABLE[OpCode.OP_FOR_LOOP] = VM::opForLoop;
+        TABLE[OpCode.OP_POPN] = VM::opPopN;
+        TABLE[OpCode.OP_GREATER_EQUAL] = VM::opGreaterEqual;
+        TABLE[OpCode.OP_LESS_EQUAL] = VM::opLessEqual;
+        TABLE[OpCode.OP_NOT_EQUAL] = VM::opNotEqual;
+        TABLE[OpCode.OP_GREATER_EQUAL_NUM] = VM::opGreaterEqualNum;
+        TABLE[OpCode.OP_LESS_EQUAL_NUM] = VM::opLessEqualNum;
+        TABLE[OpCode.OP_QGREATER_EQUAL_NUM] = VM::opQGreaterEqualNum;
+        TABLE[OpCode.OP_QLESS_EQUAL_NUM] = VM::opQLessEqualNum;
+        TABLE[OpCode.OP_QNOT_EQUAL_NUM] = VM::opQNotEqualNum;
+        TABLE[OpCode.OP_LESS_EQUAL_LOCAL_LOCAL] = VM::opLessEqualLocalLocal;
+        TABLE[OpCode.OP_POP_JUMP_IF_FALSE] = VM::opPopJumpIfFalse;
+        TABLE[OpCode.OP_POP_JUMP_IF_TRUE] = VM::opPopJumpIfTrue;
+        TABLE[OpCode.OP_JUMP_IF_TRUE] = VM::opJumpIfTrue;
+        TABLE[OpCode.OP_JUMP_IF_NOT_LESS] = VM::opJumpIfNotLess;
+        TABLE[OpCode.OP_JUMP_IF_NOT_GREATER] = VM::opJumpIfNotGreater;
+        TABLE[OpCode.OP_JUMP_IF_NOT_LESS_EQUAL] = VM::opJumpIfNotLessEqual;
+        TABLE[OpCode.OP_JUMP_IF_NOT_GREATER_EQUAL] = VM::opJumpIfNotGreaterEqual;
+        TABLE[OpCode.OP_JUMP_IF_NOT_EQUAL] = VM::opJumpIfNotEqual;
+        TABLE[OpCode.OP_JUMP_IF_EQUAL] = VM::opJumpIfEqual;
+        TABLE[OpCode.OP_LOOP_IF_TRUE] = VM::opLoopIfTrue;
+        TABLE[OpCode.OP_LOOP_IF_FALSE] = VM::opLoopIfFalse;
+        TABLE[OpCode.OP_LOOP_IF_LESS] = VM::opLoopIfLess;
+        TABLE[OpCode.OP_LOOP_IF_GREATER] = VM::opLoopIfGreater;
+        TABLE[OpCode.OP_LOOP_IF_LESS_EQUAL] = VM::opLoopIfLessEqual;
+        TABLE[OpCode.OP_LOOP_IF_GREATER_EQUAL] = VM::opLoopIfGreaterEqual;
+        TABLE[OpCode.OP_LOOP_IF_EQUAL] = VM::opLoopIfEqual;
+        TABLE[OpCode.OP_LOOP_IF_NOT_EQUAL] = VM::opLoopIfNotEqual;
+        TABLE[OpCode.OP_CONCAT] = VM::opConcat;
+    }
+
+    @Override
+    public void run(VM vm) {
+        Instruction[] table = TABLE;
+        while (!vm.halted) {
+            table[vm.nextOpcode()].execute(vm);
+        }
+    }
+}
@@ -1,265 +1,937 @@
 // Arquivo: VM.java
 package main.java.org.cmt.compilers.bytecode;
 
-import main.java.org.cmt.compilers.Heuler;
+import main.java.org.cmt.compilers.Diagnostics;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * A Máquina Virtual (VM) da Heuler.
  * Executa o bytecode gerado pelo Compilador.
  * É uma VM baseada em pilha (stack-based).
+ *
+ * Representação dos valores: cada posição da pilha (e cada global) ocupa
+ * duas "colunas" paralelas:
+ * - `...Refs[i]`: o objeto (null = nil, Boolean, String ou RopeString) ou a marca NUMBER;
+ * - `...Nums[i]`: o double, válido apenas quando a marca é NUMBER.
+ * Assim os números nunca são encaixotados (boxing) em Double: a aritmética
+ * lê e escreve diretamente nos arrays de double, sem alocar.
+ *
+ * A VM guarda o estado (pilha, globais, ip) e implementa a semântica de
+ * cada opcode num método `op...`. Quem decide qual método chamar para cada
+ * byte é o {@link DispatchEngine} escolhido na construção.
  */
 public class VM {
 
-    private final Map<String, Object> globals = new HashMap<>();
     private static final int STACK_MAX = 256; // Tamanho máximo da pilha
-    private Chunk chunk; // O bytecode que estamos a executar
-    private int ip;      // Instruction Pointer: aponta para a próxima instrução
-
-    private Object[] stack = new Object[STACK_MAX]; // A pilha de valores
+    // Marca um slot cujo valor é o número guardado na coluna de doubles
+    private static final Object NUMBER = new Object();
+    // Marca um slot de global que ainda não foi definido (distinto de 'nil', que é null)
+    private static final Object UNDEFINED = new Object();
+    // Depois de tantas desotimizações num mesmo local, a instrução fica genérica para sempre
+    private static final int MAX_DEOPTS = 4;
+    // Concatenações com resultado a partir deste tamanho viram RopeString
+    private static final int ROPE_THRESHOLD = 256;
+
+    private final DispatchEngine engine; // Estratégia de despacho das instruções
+    private final Diagnostics diagnostics; // Onde os erros de execução são reportados
+    private final OutputSink output;       // Destino de OP_PRINT
+
+    // Globais indexadas pelo slot resolvido pelo Compilador
+    private Object[] globalRefs = new Object[0];
+    private double[] globalNums = new double[0];
+
+    private CompiledProgram program; // O programa que estamos a executar (compartilhado)
+    private byte[] code; // Bytecode em execução: o do programa ou a cópia acelerada dele (null se mapeado)
+    private ByteBuffer mappedCode; // Bytecode de um programa mapeado, lido direto do arquivo
+    int ip;              // Instruction Pointer: aponta para a próxima instrução
+    boolean halted;      // true depois de OP_RETURN (usado pelo engine de tabela)
+    private double[] numbers; // Pool de constantes numéricas do programa (null = ler do programa)
+    private String[] strings; // Strings do programa já decodificadas (null = ainda não usada)
+    private StringTable interned; // Textos curtos desta execução: iguais são a mesma instância
+
+    // A pilha de valores (duas colunas paralelas, ver comentário da classe)
+    private final Object[] stackRefs = new Object[STACK_MAX];
+    private final double[] stackNums = new double[STACK_MAX];
     private int stackTop; // Aponta para o topo da pilha (logo acima do último item)
 
+    /** Cria uma VM com o engine de despacho padrão (switch denso). */
     public VM() {
+        this(DispatchEngine.SWITCH);
+    }
+
+    /** Cria uma VM que reporta os erros de execução em System.err. */
+    public VM(DispatchEngine engine) {
+        this(engine, new Diagnostics(System.err));
+    }
+
+    /** Cria uma VM que imprime em System.out (com buffer). */
+    public VM(DispatchEngine engine, Diagnostics diagnostics) {
+        this(engine, diagnostics, new BufferedOutputSink(System.out));
+    }
+
+    public VM(DispatchEngine engine, Diagnostics diagnostics, OutputSink output) {
+        this.engine = engine;
+        this.diagnostics = diagnostics;
+        this.output = output;
         this.stackTop = 0;
     }
 
     /**
      * O ponto de entrada principal para a VM.
-     * @param chunk O bytecode a ser executado.
+     * Uma VM executa um programa de cada vez; para execuções simultâneas do
+     * mesmo programa, crie uma VM por thread (criar uma VM é barato).
+     * @param program O programa compilado a ser executado.
      * @return O resultado da interpretação.
      */
-    public InterpretResult interpret(Chunk chunk) {
-        this.chunk = chunk;
+    public InterpretResult interpret(CompiledProgram program) {
+        this.program = program;
+        this.code = program.code();
+        this.mappedCode = program.mappedCode();
+        this.numbers = program.numbers();
+        this.strings = program.strings();
+        this.interned = new StringTable(program);
+        // Cada programa traz a sua tabela de slots; todas começam indefinidas
+        this.globalRefs = new Object[program.globalCount()];
+        this.globalNums = new double[program.globalCount()];
+        Arrays.fill(this.globalRefs, UNDEFINED);
         this.ip = 0; // Começa na primeira instrução
-        return run();
+        this.halted = false;
+        this.stackTop = 0;
+
+        try {
+            engine.run(this);
+            return InterpretResult.INTERPRET_OK;
+        } catch (RuntimeException e) {
+            // Erros de execução (já reportados) ou fatais (como stack overflow): paramos aqui.
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+        } finally {
+            output.flush(); // Fim do script: entrega o que ficou no buffer
+        }
+    }
+
+    // --- Semântica dos Opcodes (chamada pelos engines de despacho) ---
+
+    void opReturn() {
+        pop(); // Apenas descarta o valor de retorno final (o 'nil')
+        halted = true; // Termina silenciosamente
+    }
+
+    void opNil()   { push(null); } // 'null' do Java representa 'nil' da Heuler
+    void opTrue()  { push(Boolean.TRUE); }
+    void opFalse() { push(Boolean.FALSE); }
+
+    void opConstant()     { pushNumber(number(readByte() & 0xFF)); }
+    void opConstantLong() { pushNumber(number(readLongIndex())); }
+    void opString()       { push(string(readByte() & 0xFF)); }
+    void opStringLong()   { push(string(readLongIndex())); }
+
+    // Constante numérica `index`; num chunk mapeado é lida do arquivo
+    private double number(int index) {
+        double[] pool = numbers;
+        return pool != null ? pool[index] : program.getNumber(index);
+    }
+
+    // Constante string `index`; num chunk mapeado é decodificada no primeiro uso
+    private String string(int index) {
+        String value = strings[index];
+        return value != null ? value : program.getString(index);
+    }
+
+    void opNegate() {
+        if (!isNumber(0)) {
+            throw runtimeError("Operando deve ser um número.");
+        }
+        stackNums[stackTop - 1] = -stackNums[stackTop - 1]; // Nega no próprio slot
+    }
+
+    // As formas genéricas observam os tipos dos operandos e, quando estes são
+    // previsíveis, reescrevem a própria instrução para a forma acelerada (quickening)
+
+    void opAdd() {
+        if (bothNumbers()) {
+            quicken(OpCode.OP_QADD_NUM);
+        } else if (isString(stackRefs[stackTop - 2]) || isString(stackRefs[stackTop - 1])) {
+            quicken(OpCode.OP_QADD_STR);
+        }
+        binaryOp('+');
+    }
+
+    void opSubtract() {
+        if (bothNumbers()) quicken(OpCode.OP_QSUBTRACT_NUM);
+        binaryOp('-');
+    }
+
+    void opMultiply() {
+        if (bothNumbers()) quicken(OpCode.OP_QMULTIPLY_NUM);
+        binaryOp('*');
+    }
+
+    void opDivide() {
+        if (bothNumbers()) quicken(OpCode.OP_QDIVIDE_NUM);
+        binaryOp('/');
+    }
+
+    void opGreater() {
+        if (bothNumbers()) quicken(OpCode.OP_QGREATER_NUM);
+        binaryOp('>');
+    }
+
+    void opLess() {
+        if (bothNumbers()) quicken(OpCode.OP_QLESS_NUM);
+        binaryOp('<');
+    }
+
+    void opGreaterEqual() {
+        if (bothNumbers()) quicken(OpCode.OP_QGREATER_EQUAL_NUM);
+        binaryOp('≥');
+    }
+
+    void opLessEqual() {
+        if (bothNumbers()) quicken(OpCode.OP_QLESS_EQUAL_NUM);
+        binaryOp('≤');
+    }
+
+    // --- Versões especializadas: o Compilador garante que os dois operandos são números ---
+
+    void opAddNum() {
+        stackTop--;
+        stackNums[stackTop - 1] += stackNums[stackTop];
+    }
+
+    void opSubtractNum() {
+        stackTop--;
+        stackNums[stackTop - 1] -= stackNums[stackTop];
+    }
+
+    void opMultiplyNum() {
+        stackTop--;
+        stackNums[stackTop - 1] *= stackNums[stackTop];
+    }
+
+    void opDivideNum() {
+        stackTop--;
+        stackNums[stackTop - 1] /= stackNums[stackTop];
+    }
+
+    void opLessNum() {
+        stackTop--;
+        stackRefs[stackTop - 1] = stackNums[stackTop - 1] < stackNums[stackTop];
+    }
+
+    void opGreaterNum() {
+        stackTop--;
+        stackRefs[stackTop - 1] = stackNums[stackTop - 1] > stackNums[stackTop];
+    }
+
+    void opGreaterEqualNum() {
+        stackTop--;
+        stackRefs[stackTop - 1] = stackNums[stackTop - 1] >= stackNums[stackTop];
+    }
+
+    void opLessEqualNum() {
+        stackTop--;
+        stackRefs[stackTop - 1] = stackNums[stackTop - 1] <= stackNums[stackTop];
+    }
+
+    void opCheckNumber() {
+        if (!isNumber(0)) {
+            throw runtimeError("Valor não numérico atribuído a uma variável int/float.");
+        }
+    }
+
+    // --- Formas aceleradas: guarda barata e, se falhar, desotimiza e executa a genérica ---
+
+    void opQAddNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_ADD);
+            binaryOp('+');
+            return;
+        }
+        opAddNum();
+    }
+
+    void opQSubtractNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_SUBTRACT);
+            binaryOp('-');
+            return;
+        }
+        opSubtractNum();
+    }
+
+    void opQMultiplyNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_MULTIPLY);
+            binaryOp('*');
+            return;
+        }
+        opMultiplyNum();
+    }
+
+    void opQDivideNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_DIVIDE);
+            binaryOp('/');
+            return;
+        }
+        opDivideNum();
+    }
+
+    void opQLessNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_LESS);
+            binaryOp('<');
+            return;
+        }
+        opLessNum();
+    }
+
+    void opQGreaterNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_GREATER);
+            binaryOp('>');
+            return;
+        }
+        opGreaterNum();
+    }
+
+    void opQGreaterEqualNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_GREATER_EQUAL);
+            binaryOp('≥');
+            return;
+        }
+        opGreaterEqualNum();
+    }
+
+    void opQLessEqualNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_LESS_EQUAL);
+            binaryOp('≤');
+            return;
+        }
+        opLessEqualNum();
+    }
+
+    void opQEqualNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_EQUAL);
+            equalOp(false);
+            return;
+        }
+        stackTop--;
+        stackRefs[stackTop - 1] = stackNums[stackTop - 1] == stackNums[stackTop];
+    }
+
+    void opQNotEqualNum() {
+        if (!bothNumbers()) {
+            deoptimize(OpCode.OP_NOT_EQUAL);
+            equalOp(true);
+            return;
+        }
+        stackTop--;
+        stackRefs[stackTop - 1] = stackNums[stackTop - 1] != stackNums[stackTop];
+    }
+
+    void opQAddStr() {
+        Object refA = stackRefs[stackTop - 2];
+        Object refB = stackRefs[stackTop - 1];
+        if (!isString(refA) && !isString(refB)) {
+            deoptimize(OpCode.OP_ADD);
+            binaryOp('+');
+            return;
+        }
+        CharSequence result = concat(stackTop - 2, stackTop - 1);
+        stackTop--;
+        stackRefs[stackTop - 1] = result;
+    }
+
+    // Cadeia `s + a + b + ...` (o compilador garante que o primeiro valor é
+    // string): na primeira passada cada operando vira texto no próprio slot e
+    // os tamanhos são somados; na segunda o resultado é montado num builder
+    // do tamanho exato. Uma RopeString à esquerda recebe os appends no lugar.
+    void opConcat() {
+        int count = readByte() & 0xFF;
+        int first = stackTop - count;
+        CharSequence result;
+        if (stackRefs[first] instanceof RopeString) {
+            RopeString rope = (RopeString) stackRefs[first];
+            for (int slot = first + 1; slot < stackTop; slot++) rope = rope.append(text(slot));
+            result = rope;
+        } else {
+            int total = 0;
+            for (int slot = first; slot < stackTop; slot++) {
+                String part = text(slot);
+                stackRefs[slot] = part; // Slot temporário: guarda o texto para a segunda passada
+                total += part.length();
+            }
+            boolean rope = total >= ROPE_THRESHOLD;
+            // Como RopeString, deixa folga para os appends seguintes
+            StringBuilder builder = new StringBuilder(rope ? Math.max(total, total << 1) : total);
+            for (int slot = first; slot < stackTop; slot++) builder.append((String) stackRefs[slot]);
+            result = rope ? RopeString.of(builder) : interned.intern(builder.toString());
+        }
+        stackTop = first + 1;
+        stackRefs[first] = result;
+    }
+
+    void opPrint() {
+        if (isNumber(0)) {
+            output.printNumber(popNumber()); // Sem boxing
+            return;
+        }
+        Object value = pop();
+        if (isString(value)) {
+            output.printString(value.toString()); // Achata a RopeString, se for o caso
+        } else if (value instanceof Boolean) {
+            output.printBoolean((Boolean) value);
+        } else {
+            output.printNil();
+        }
+    }
+
+    void opPop() {
+        pop(); // Apenas descarta o valor do topo da pilha
+    }
+
+    void opPopN() {
+        stackTop -= readByte() & 0xFF; // Descarta vários valores de uma vez
+    }
+
+    void opDefineGlobal() {
+        // O slot da variável foi resolvido pelo Compilador
+        int slot = readShort();
+        // O valor está no topo da pilha (resultado da expressão inicializadora)
+        stackTop--;
+        globalRefs[slot] = stackRefs[stackTop];
+        globalNums[slot] = stackNums[stackTop];
+    }
+
+    void opGetGlobal() {
+        int slot = readShort();
+        Object ref = globalRefs[slot];
+        if (ref == UNDEFINED) {
+            // Erro de tempo de execução: Variável não definida
+            throw runtimeError("Variável indefinida '" + program.getGlobalName(slot) + "'.");
+        }
+        ensureCapacity();
+        stackRefs[stackTop] = ref;
+        stackNums[stackTop] = globalNums[slot];
+        stackTop++;
+    }
+
+    void opSetGlobal() {
+        int slot = readShort();
+        if (globalRefs[slot] == UNDEFINED) {
+            throw runtimeError("Variável indefinida '" + program.getGlobalName(slot) + "'.");
+        }
+        // Copia o topo sem remover (para permitir a = b = 1)
+        globalRefs[slot] = stackRefs[stackTop - 1];
+        globalNums[slot] = stackNums[stackTop - 1];
+    }
+
+    void opGetLocal() {
+        // O operando é o índice na pilha (slot) onde a variável está
+        // Apenas copia o valor daquele slot para o topo
+        pushSlot(readByte() & 0xFF);
+    }
+
+    void opSetLocal() {
+        int slot = readByte() & 0xFF;
+        // O novo valor está no topo; atualiza o slot específico
+        stackRefs[slot] = stackRefs[stackTop - 1];
+        stackNums[slot] = stackNums[stackTop - 1];
+    }
+
+    // --- Superinstruções ---
+
+    void opIncLocal() { stepLocal(1.0); }
+    void opDecLocal() { stepLocal(-1.0); }
+
+    // x = x + delta sobre uma local: número no próprio slot; outros tipos
+    // seguem o caminho genérico do '+' / '-' (concatenação ou erro)
+    private void stepLocal(double delta) {
+        stepSlot(readByte() & 0xFF, delta);
+    }
+
+    private void stepSlot(int slot, double delta) {
+        if (stackRefs[slot] == NUMBER) {
+            stackNums[slot] += delta;
+            return;
+        }
+        pushSlot(slot);
+        pushNumber(1.0);
+        binaryOp(delta > 0 ? '+' : '-');
+        stackTop--;
+        stackRefs[slot] = stackRefs[stackTop];
+        stackNums[slot] = stackNums[stackTop];
+    }
+
+    void opIncGlobal() { stepGlobal(1.0); }
+    void opDecGlobal() { stepGlobal(-1.0); }
+
+    private void stepGlobal(double delta) {
+        int slot = readShort();
+        Object ref = globalRefs[slot];
+        if (ref == UNDEFINED) {
+            throw runtimeError("Variável indefinida '" + program.getGlobalName(slot) + "'.");
+        }
+        if (ref == NUMBER) {
+            globalNums[slot] += delta;
+            return;
+        }
+        push(ref);
+        pushNumber(1.0);
+        binaryOp(delta > 0 ? '+' : '-');
+        stackTop--;
+        globalRefs[slot] = stackRefs[stackTop];
+        globalNums[slot] = stackNums[stackTop];
+    }
+
+    void opLessLocalLocal() {
+        int a = readByte() & 0xFF;
+        int b = readByte() & 0xFF;
+        if (stackRefs[a] == NUMBER && stackRefs[b] == NUMBER) {
+            push(stackNums[a] < stackNums[b]);
+            return;
+        }
+        pushSlot(a);
+        pushSlot(b);
+        binaryOp('<');
+    }
+
+    void opLessEqualLocalLocal() {
+        int a = readByte() & 0xFF;
+        int b = readByte() & 0xFF;
+        if (stackRefs[a] == NUMBER && stackRefs[b] == NUMBER) {
+            push(stackNums[a] <= stackNums[b]);
+            return;
+        }
+        pushSlot(a);
+        pushSlot(b);
+        binaryOp('≤');
+    }
+
+    void opSetLocalPop() {
+        int slot = readByte() & 0xFF;
+        stackTop--;
+        stackRefs[slot] = stackRefs[stackTop];
+        stackNums[slot] = stackNums[stackTop];
+    }
+
+    void opSetGlobalPop() {
+        int slot = readShort();
+        if (globalRefs[slot] == UNDEFINED) {
+            throw runtimeError("Variável indefinida '" + program.getGlobalName(slot) + "'.");
+        }
+        stackTop--;
+        globalRefs[slot] = stackRefs[stackTop];
+        globalNums[slot] = stackNums[stackTop];
+    }
+
+    // --- Laço numérico: o iterador fica em `slot` e o limite em `slot - 1` ---
+
+    void opForPrep() {
+        int slot = readByte() & 0xFF;
+        int offset = readShort();
+        if (!forContinues(slot)) {
+            ip += offset; // Nenhuma volta: vai direto para a saída
+        }
+    }
+
+    void opForLoop() {
+        int slot = readByte() & 0xFF;
+        int offset = readShort();
+        stepSlot(slot, 1.0);
+        if (forContinues(slot)) {
+            ip -= offset; // Volta para o início do corpo
+        }
+    }
+
+    // i < limite? Com dois números compara direto nos slots; senão usa o '<'
+    // genérico (que reporta o erro de tipo e resulta em nil, encerrando o laço)
+    private boolean forContinues(int slot) {
+        if (stackRefs[slot] == NUMBER && stackRefs[slot - 1] == NUMBER) {
+            return stackNums[slot] < stackNums[slot - 1];
+        }
+        pushSlot(slot);
+        pushSlot(slot - 1);
+        binaryOp('<');
+        return !isFalsey(pop());
+    }
+
+    void opJump() {
+        int offset = readShort();
+        ip += offset; // Avança o ponteiro
+    }
+
+    void opJumpIfFalse() {
+        int offset = readShort();
+        // Se for falso, salta. Se for verdadeiro, continua (e o offset é ignorado).
+        if (isFalsey(stackRefs[stackTop - 1])) {
+            ip += offset;
+        }
+    }
+
+    void opPopJumpIfFalse() {
+        int offset = readShort();
+        stackTop--;
+        if (isFalsey(stackRefs[stackTop])) {
+            ip += offset;
+        }
+    }
+
+    void opPopJumpIfTrue() {
+        int offset = readShort();
+        stackTop--;
+        if (!isFalsey(stackRefs[stackTop])) {
+            ip += offset;
+        }
+    }
+
+    void opJumpIfTrue() {
+        int offset = readShort();
+        if (!isFalsey(stackRefs[stackTop - 1])) {
+            ip += offset;
+        }
+    }
+
+    // --- Comparar e desviar ---
+
+    void opJumpIfNotLess()         { jumpUnless('<'); }
+    void opJumpIfNotGreater()      { jumpUnless('>'); }
+    void opJumpIfNotLessEqual()    { jumpUnless('≤'); }
+    void opJumpIfNotGreaterEqual() { jumpUnless('≥'); }
+    void opJumpIfNotEqual()        { jumpUnless('='); }
+    void opJumpIfEqual()           { jumpUnless('≠'); }
+
+    private void jumpUnless(char op) {
+        int offset = readShort();
+        if (!compare(op)) {
+            ip += offset;
+        }
+    }
+
+    // --- Desvios para trás (laço while em forma rodada) ---
+
+    void opLoopIfTrue() {
+        int offset = readShort();
+        stackTop--;
+        if (!isFalsey(stackRefs[stackTop])) {
+            ip -= offset;
+        }
+    }
+
+    void opLoopIfFalse() {
+        int offset = readShort();
+        stackTop--;
+        if (isFalsey(stackRefs[stackTop])) {
+            ip -= offset;
+        }
+    }
+
+    void opLoopIfLess()         { loopIf('<'); }
+    void opLoopIfGreater()      { loopIf('>'); }
+    void opLoopIfLessEqual()    { loopIf('≤'); }
+    void opLoopIfGreaterEqual() { loopIf('≥'); }
+    void opLoopIfEqual()        { loopIf('='); }
+    void opLoopIfNotEqual()     { loopIf('≠'); }
+
+    private void loopIf(char op) {
+        int offset = readShort();
+        if (compare(op)) {
+            ip -= offset;
+        }
     }
 
     /**
-     * O loop principal de execução (despacho de bytecode).
-     * Lê e executa instruções até terminar.
+     * Desempilha os dois operandos e devolve se `a op b` vale. Com dois
+     * números compara direto (sem Boolean intermediário); senão usa a
+     * igualdade ou o binaryOp genérico (mesmos erros de tipo, e o nil
+     * resultante de um erro conta como falso).
      */
-    private InterpretResult run() {
-        try {
-            for (;;) {
-                byte instruction = readByte();
-
-                // Converte o byte para um OpCode
-                OpCode op = OpCode.values()[instruction];
-
-                switch (op) {
-                    case OP_RETURN: {
-                        pop(); // Apenas descarta o valor de retorno final (o 'nil')
-                        return InterpretResult.INTERPRET_OK; // Termina silenciosamente
-                    }
-                    case OP_NIL: {
-                        push(null); // 'null' do Java representa 'nil' da Heuler
-                        break;
-                    }
-                    case OP_TRUE:  push(true); break;
-                    case OP_FALSE: push(false); break;
-
-                    case OP_CONSTANT: {
-                        Object constant = readConstant();
-                        push(constant);
-                        break;
-                    }
-
-                    case OP_NEGATE: {
-                        Object value = pop();
-                        push(-(double)value); // Assume que é um número
-                        break;
-                    }
-
-                    case OP_ADD:      binaryOp('+'); break;
-                    case OP_SUBTRACT: binaryOp('-'); break;
-                    case OP_MULTIPLY: binaryOp('*'); break;
-                    case OP_DIVIDE:   binaryOp('/'); break;
-
-                    case OP_PRINT: {
-                        Object value = pop();
-                        System.out.println(value);
-                        break;
-                    }
-                    case OP_POP: {
-                        pop(); // Apenas descarta o valor do topo da pilha
-                        break;
-                    }
-                    case OP_DEFINE_GLOBAL: {
-                        // O nome da variável vem da tabela de constantes
-                        String name = readString();
-                        // O valor está no topo da pilha (resultado da expressão inicializadora)
-                        globals.put(name, pop());
-                        break;
-                    }
-
-                    case OP_GET_GLOBAL: {
-                        String name = readString();
-                        if (!globals.containsKey(name)) {
-                            // Erro de tempo de execução: Variável não definida
-                            Heuler.error(chunk.getLine(ip), "Variável indefinida '" + name + "'.");
-                            return InterpretResult.INTERPRET_RUNTIME_ERROR;
-                        }
-                        push(globals.get(name));
-                        break;
-                    }
-
-                    case OP_SET_GLOBAL: {
-                        String name = readString();
-                        if (!globals.containsKey(name)) {
-                            Heuler.error(chunk.getLine(ip), "Variável indefinida '" + name + "'.");
-                            return InterpretResult.INTERPRET_RUNTIME_ERROR;
-                        }
-                        Object value = peek(0); // Pega o valor sem remover (para permitir a = b = 1)
-                        globals.put(name, value);
-                        break;
-                    }
-                    case OP_GET_LOCAL: {
-                        // O operando é o índice na pilha (slot) onde a variável está
-                        int slot = readByte() & 0xFF;
-                        push(stack[slot]); // Apenas copia o valor daquele slot para o topo
-                        break;
-                    }
-
-                    case OP_SET_LOCAL: {
-                        int slot = readByte() & 0xFF;
-                        Object value = peek(0); // O novo valor está no topo
-                        stack[slot] = value;    // Atualiza o slot específico
-                        break;
-                    }
-                    case OP_JUMP: {
-                        int offset = readShort();
-                        ip += offset; // Avança o ponteiro
-                        break;
-                    }
-
-                    case OP_JUMP_IF_FALSE: {
-                        int offset = readShort();
-                        // Se for falso, salta. Se for verdadeiro, continua (e o offset é ignorado).
-                        if (isFalsey(peek(0))) {
-                            ip += offset;
-                        }
-                        break;
-                    }
-
-                    case OP_LOOP: {
-                        int offset = readShort();
-                        ip -= offset; // Retrocede o ponteiro (volta para o início do loop)
-                        break;
-                    }
-                    case OP_NOT:
-                        push(isFalsey(pop())); // Inverte o valor booleano
-                        break;
-
-                    case OP_EQUAL: {
-                        Object b = pop();
-                        Object a = pop();
-                        push(a.equals(b)); // Usa o equals do Java
-                        break;
-                    }
-
-                    case OP_GREATER: binaryOp('>'); break;
-                    case OP_LESS:    binaryOp('<'); break;
-                }
+    private boolean compare(char op) {
+        boolean holds;
+        if (bothNumbers()) {
+            double a = stackNums[stackTop - 2];
+            double b = stackNums[stackTop - 1];
+            stackTop -= 2;
+            switch (op) {
+                case '<': holds = a < b; break;
+                case '>': holds = a > b; break;
+                case '≤': holds = a <= b; break;
+                case '≥': holds = a >= b; break;
+                case '=': holds = a == b; break;
+                default:  holds = a != b; break;
             }
-        } catch (RuntimeException e) {
-            // Se ocorrer um erro fatal (como stack overflow), paramos aqui.
-            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+        } else if (op == '=' || op == '≠') {
+            holds = valuesEqual(stackTop - 2, stackTop - 1) == (op == '=');
+            stackTop -= 2;
+        } else {
+            binaryOp(op);
+            holds = !isFalsey(pop());
         }
+        return holds;
+    }
 
+    void opLoop() {
+        int offset = readShort();
+        ip -= offset; // Retrocede o ponteiro (volta para o início do loop)
+    }
 
+    void opNot() {
+        push(isFalsey(pop())); // Inverte o valor booleano
+    }
+
+    void opEqual() {
+        if (bothNumbers()) quicken(OpCode.OP_QEQUAL_NUM);
+        equalOp(false);
+    }
+
+    void opNotEqual() {
+        if (bothNumbers()) quicken(OpCode.OP_QNOT_EQUAL_NUM);
+        equalOp(true);
+    }
+
+    /** Chamado pelos engines quando o byte lido não corresponde a nenhum opcode. */
+    void opUnknown(int instruction) {
+        throw runtimeError("Opcode desconhecido " + instruction + ".");
     }
 
     // --- Funções Auxiliares da VM ---
 
+    // == (negate = false) ou != (negate = true) entre os dois valores do topo
+    private void equalOp(boolean negate) {
+        boolean equal = valuesEqual(stackTop - 2, stackTop - 1);
+        stackTop -= 2;
+        push(equal != negate);
+    }
+
+    // Os dois valores do topo da pilha são números?
+    private boolean bothNumbers() {
+        return stackRefs[stackTop - 2] == NUMBER && stackRefs[stackTop - 1] == NUMBER;
+    }
+
+    // Reescreve a instrução em execução (sem operandos, logo em ip - 1) para a
+    // forma acelerada, a menos que este local já tenha desotimizado demais.
+    // A reescrita vai para a cópia acelerada do programa, nunca para o Chunk.
+    // Num programa mapeado (código somente leitura) não há reescrita.
+    private void quicken(byte quickened) {
+        int site = ip - 1;
+        if (code != null && program.deoptCount(site) < MAX_DEOPTS) {
+            writableCode()[site] = quickened;
+        }
+    }
+
+    // A guarda da forma acelerada falhou: volta à forma genérica e conta o evento
+    private void deoptimize(byte generic) {
+        int site = ip - 1;
+        if (code == null) return; // Mapeado: a forma acelerada veio do arquivo e fica
+        writableCode()[site] = generic;
+        program.recordDeopt(site);
+    }
+
+    // Bytecode que pode ser reescrito: a cópia acelerada do programa, a mesma
+    // para todas as VMs (criada na primeira reescrita). Tem o mesmo layout,
+    // então a execução continua no mesmo ip.
+    private byte[] writableCode() {
+        code = program.quickenedCode();
+        return code;
+    }
+
+    // op: '+', '-', '*', '/', '>', '<', '≥' (>=) ou '≤' (<=)
     private void binaryOp(char op) {
-        Object b = pop();
-        Object a = pop();
+        int a = stackTop - 2;
+        int b = stackTop - 1;
+
+        // --- Caminho rápido: dois números, resultado escrito no slot de 'a' ---
+        if (stackRefs[a] == NUMBER && stackRefs[b] == NUMBER) {
+            double valA = stackNums[a];
+            double valB = stackNums[b];
+            stackTop--;
+            switch (op) {
+                case '+': stackNums[a] = valA + valB; break;
+                case '-': stackNums[a] = valA - valB; break;
+                case '*': stackNums[a] = valA * valB; break;
+                case '/': stackNums[a] = valA / valB; break;
+                // Booleanos: Boolean.valueOf devolve as instâncias em cache (não aloca)
+                case '>': stackRefs[a] = valA > valB; break;
+                case '<': stackRefs[a] = valA < valB; break;
+                case '≥': stackRefs[a] = valA >= valB; break;
+                case '≤': stackRefs[a] = valA <= valB; break;
+            }
+            return;
+        }
 
         // --- Lógica para Concatenação de Strings (+) ---
         if (op == '+') {
             // Se algum dos dois for String, tratamos como concatenação
-            if (a instanceof String || b instanceof String) {
-                push(String.valueOf(a) + String.valueOf(b));
+            if (isString(stackRefs[a]) || isString(stackRefs[b])) {
+                CharSequence result = concat(a, b);
+                stackTop -= 2;
+                push(result);
                 return;
             }
         }
 
-        // --- Lógica para Aritmética Numérica ---
-
         // Se não for concatenação, ambos DEVEM ser números
-        if (!(a instanceof Double) || !(b instanceof Double)) {
-            Heuler.error(0, "Operandos devem ser números.");
-            // IMPORTANTE: Não podemos apenas retornar, precisamos manter a pilha consistente.
-            // Vamos empilhar um 'nil' ou 0 para evitar o Stack Underflow subsequente.
-            push(null);
-            return;
+        error(0, "Operandos devem ser números.");
+        // IMPORTANTE: Não podemos apenas retornar, precisamos manter a pilha consistente.
+        // Vamos empilhar um 'nil' ou 0 para evitar o Stack Underflow subsequente.
+        stackTop -= 2;
+        push(null);
+    }
+
+    // Strings da VM: String (constantes, textos curtos) ou RopeString
+    private static boolean isString(Object ref) {
+        return ref instanceof String || ref instanceof RopeString;
+    }
+
+    // Concatena o texto dos dois slots. Textos curtos usam String.concat, que
+    // copia cada lado uma só vez, e passam pela StringTable. A partir de ROPE_THRESHOLD caracteres o
+    // resultado vira uma RopeString, e os appends seguintes à esquerda
+    // (`s = s + x`) escrevem no mesmo builder sem recopiar o prefixo.
+    private CharSequence concat(int a, int b) {
+        Object left = stackRefs[a];
+        String right = text(b);
+        if (left instanceof RopeString) return ((RopeString) left).append(right);
+        String leftText = text(a);
+        if (leftText.length() + right.length() >= ROPE_THRESHOLD) {
+            return RopeString.concat(leftText, right);
         }
+        return interned.intern(leftText.concat(right));
+    }
 
-        double valA = (double) a;
-        double valB = (double) b;
+    // Texto de um slot: números pelo ValueFormatter, RopeString achatada
+    private String text(int slot) {
+        Object ref = stackRefs[slot];
+        if (ref == NUMBER) return ValueFormatter.formatNumber(stackNums[slot]);
+        if (ref instanceof String) return (String) ref;
+        return String.valueOf(ref); // RopeString, Boolean ou null ("null")
+    }
 
-        switch (op) {
-            case '+': push(valA + valB); break;
-            case '-': push(valA - valB); break;
-            case '*': push(valA * valB); break;
-            case '/': push(valA / valB); break;
-            case '>': push(valA > valB); break;
-            case '<': push(valA < valB); break;
+    // Igualdade entre dois slots da pilha: números pela igualdade IEEE 754
+    // (NaN diferente de tudo, 0.0 igual a -0.0), strings pelo conteúdo (a
+    // RopeString é achatada), demais valores pelo equals do Java (nil só é
+    // igual a nil). Dois textos internados (constantes do programa e textos
+    // curtos produzidos, ver StringTable) são iguais só se forem a mesma
+    // instância, então a referência decide sem olhar os caracteres.
+    private boolean valuesEqual(int a, int b) {
+        Object refA = stackRefs[a];
+        Object refB = stackRefs[b];
+        if (refA == NUMBER || refB == NUMBER) {
+            return refA == refB && stackNums[a] == stackNums[b];
         }
+        if (refA == refB) return true; // nil e nil, o mesmo booleano, a mesma string
+        if (refA == null || refB == null) return false;
+        if (refA instanceof String && refB instanceof String) {
+            String textA = (String) refA;
+            String textB = (String) refB;
+            return !interned.identityDecides(textA, textB) && textA.equals(textB);
+        }
+        if (refA instanceof RopeString || refB instanceof RopeString) {
+            return isString(refA) && isString(refB) && refA.toString().equals(refB.toString());
+        }
+        return refA.equals(refB);
+    }
+
+    // Reporta um erro de execução na linha da instrução atual e devolve a
+    // exceção que interrompe o engine (capturada em interpret)
+    private RuntimeException runtimeError(String message) {
+        error(program.getLine(ip), message);
+        return new RuntimeException("VM Error");
     }
+
+    // Reporta um erro depois de esvaziar o buffer de saída, para que a
+    // mensagem apareça depois do que o script já imprimiu
+    private void error(int line, String message) {
+        output.flush();
+        diagnostics.error(line, message);
+    }
+
     // Lê 2 bytes e combina-os num número de 16 bits (0 a 65535)
     private int readShort() {
-        ip += 2;
-        int b1 = chunk.getCode().get(ip - 2) & 0xFF;
-        int b2 = chunk.getCode().get(ip - 1) & 0xFF;
+        int b1 = readByte() & 0xFF;
+        int b2 = readByte() & 0xFF;
         return (b1 << 8) | b2;
     }
 
-    // Define o que é "falso" na linguagem Heuler (nil e false são falsos)
+    // Define o que é "falso" na linguagem Heuler (nil e false são falsos).
+    // A marca NUMBER não é Boolean, então números são sempre verdadeiros.
     private boolean isFalsey(Object value) {
         return value == null || (value instanceof Boolean && !(Boolean)value);
     }
 
+    /** Lê o opcode da próxima instrução (chamado pelos engines a cada volta). */
+    int nextOpcode() {
+        return readByte() & 0xFF;
+    }
+
     // Lê o próximo byte e avança o ponteiro de instrução
     private byte readByte() {
-        return this.chunk.getCode().get(ip++);
+        byte[] bytes = code;
+        return bytes != null ? bytes[ip++] : mappedCode.get(ip++);
     }
 
-    // Lê uma constante da tabela de constantes
-    private Object readConstant() {
-        // Lê o índice da constante (que é o próximo byte após OP_CONSTANT)
-        int constantIndex = readByte() & 0xFF; // Converte byte para int (0-255)
-        return this.chunk.getConstants().get(constantIndex);
+    // Lê o índice de 3 bytes das formas largas (OP_CONSTANT_LONG / OP_STRING_LONG)
+    private int readLongIndex() {
+        int b1 = readByte() & 0xFF;
+        int b2 = readByte() & 0xFF;
+        int b3 = readByte() & 0xFF;
+        return (b1 << 16) | (b2 << 8) | b3;
     }
 
     // --- Funções da Pilha (Stack) ---
 
-    private void push(Object value) {
+    private void ensureCapacity() {
         if (stackTop == STACK_MAX) {
-            Heuler.error(0, "Stack overflow!");
-            // Truque simples: lançar uma exceção para sair do loop run() imediatamente
+            error(0, "Stack overflow!");
+            // Truque simples: lançar uma exceção para sair do engine imediatamente
             throw new RuntimeException("VM Error");
         }
-        this.stack[stackTop] = value;
+    }
+
+    // Empilha um objeto (nil, Boolean ou String). Números usam pushNumber.
+    private void push(Object value) {
+        ensureCapacity();
+        this.stackRefs[stackTop] = value;
+        this.stackTop++;
+    }
+
+    private void pushNumber(double value) {
+        ensureCapacity();
+        this.stackRefs[stackTop] = NUMBER;
+        this.stackNums[stackTop] = value;
         this.stackTop++;
     }
+
+    // Desempilha e retorna a parte objeto do valor (use isNumber antes se puder ser número)
     private Object pop() {
         if (stackTop == 0) {
-            Heuler.error(0, "Stack underflow!");
+            error(0, "Stack underflow!");
             throw new RuntimeException("VM Error");
         }
         this.stackTop--;
-        return this.stack[stackTop];
+        return this.stackRefs[stackTop];
+    }
+
+    // Empilha uma cópia do valor que está no slot `slot` da pilha
+    private void pushSlot(int slot) {
+        ensureCapacity();
+        stackRefs[stackTop] = stackRefs[slot];
+        stackNums[stackTop] = stackNums[slot];
+        stackTop++;
     }
 
-    private String readString() {
-        return (String) readConstant();
+    private double popNumber() {
+        pop();
+        return this.stackNums[stackTop];
     }
 
-    // Helper para espreitar a pilha sem remover
-    private Object peek(int distance) {
-        return stack[stackTop - 1 - distance];
+    // Helper para espreitar a pilha sem remover: o valor a `distance` do topo é número?
+    private boolean isNumber(int distance) {
+        return stackRefs[stackTop - 1 - distance] == NUMBER;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+package main.java.org.cmt.compilers.bytecode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formatação dos valores da Heuler como texto (print e concatenação).
+ *
+ * Números:
+ * - inteiros com |x| < 2^53 saem sem casa decimal ("10", "-3", "-0"),
+ *   escritos dígito a dígito, sem criar String intermediária;
+ * - os demais usam a menor sequência de dígitos que, lida de volta, dá
+ *   exatamente o mesmo double (ex: "0.1", "2.5E-5", "1.0E20"), no mesmo
+ *   layout do Double.toString: decimal simples para 10^-3 <= |x| < 10^7,
+ *   notação científica fora disso;
+ * - NaN e infinitos como no Java ("NaN", "Infinity", "-Infinity").
+ * Os demais valores: strings como estão, booleanos "true"/"false" e nil "null".
+ *
+ * É a mesma formatação na VM (OP_PRINT e OP_ADD com strings) e na dobragem
+ * de constantes, para que dobrar uma concatenação não mude o resultado.
+ *
+ * Alocação: inteiros, NaN/infinitos e decimais curtos no layout simples
+ * (até 15 dígitos significativos, como 0.5 ou 99999.75) são escritos sem
+ * alocar nada. Os demais (notação científica ou 16-17 dígitos) passam por
+ * writeShortest, que parte do Double.toString e testa candidatos com
+ * Double.parseDouble: correto, mas aloca algumas Strings e arrays pequenos
+ * por número. Um algoritmo de dígitos mínimos sem alocação (Ryu/Schubfach)
+ * eliminaria esse caminho; no JDK 19+ o próprio Double.toString já devolve
+ * os dígitos mínimos.
+ */
+public final class ValueFormatter {
+
+    /** Maior quantidade de caracteres que um número formatado ocupa. */
+    public static final int MAX_NUMBER_LENGTH = 32;
+
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0; // 2^53
+    // Com até 15 dígitos significativos, um decimal identifica um único double
+    private static final long MAX_SHORT_DIGITS = 1_000_000_000_000_000L; // 10^15
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+        1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+    private static final long[] LONG_POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+        1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L,
+        10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L,
+        10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+    private static final byte[] NAN = { 'N', 'a', 'N' };
+    private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+
+    private ValueFormatter() {}
+
+    /** Texto de um valor da VM (null = nil, Boolean, String ou Double). */
+    public static String format(Object value) {
+        if (value instanceof Double) return formatNumber((Double) value);
+        return String.valueOf(value);
+    }
+
+    public static String formatNumber(double value) {
+        if (isPlainInteger(value) && value != 0) return Long.toString((long) value);
+        byte[] buffer = new byte[MAX_NUMBER_LENGTH];
+        int length = writeNumber(value, buffer, 0);
+        return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Acrescenta o número ao builder (inteiros sem nenhuma alocação). */
+    public static void appendNumber(StringBuilder builder, double value) {
+        if (isPlainInteger(value) && value != 0) {
+            builder.append((long) value);
+            return;
+        }
+        byte[] buffer = new byte[MAX_NUMBER_LENGTH];
+        int length = writeNumber(value, buffer, 0);
+        for (int i = 0; i < length; i++) builder.append((char) buffer[i]);
+    }
+
+    /**
+     * Escreve o número em ASCII em `buffer` a partir de `offset` e devolve o
+     * offset seguinte. É preciso haver MAX_NUMBER_LENGTH bytes livres.
+     */
+    public static int writeNumber(double value, byte[] buffer, int offset) {
+        if (Double.isNaN(value)) return put(NAN, buffer, offset);
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        if (value == Double.POSITIVE_INFINITY) return put(INFINITY, buffer, offset);
+        if (isPlainInteger(value)) return writeLong((long) value, buffer, offset);
+        int end = writeShortDecimal(value, buffer, offset);
+        return end >= 0 ? end : writeShortest(value, buffer, offset);
+    }
+
+    // Inteiro que cabe exatamente num double (e num long)
+    private static boolean isPlainInteger(double value) {
+        return value == Math.rint(value) && Math.abs(value) < MAX_EXACT_INTEGER;
+    }
+
+    private static int put(byte[] text, byte[] buffer, int offset) {
+        System.arraycopy(text, 0, buffer, offset, text.length);
+        return offset + text.length;
+    }
+
+    // Dígitos de um valor não negativo
+    private static int writeLong(long value, byte[] buffer, int offset) {
+        int end = offset + digitCount(value);
+        int position = end;
+        do {
+            buffer[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    // --- Menor representação (valores positivos, finitos e não inteiros pequenos) ---
+
+    /**
+     * Caminho rápido, sem alocação, para decimais curtos no layout simples
+     * (10^-3 <= x < 10^7), como 0.5, 99999.75 ou 3.14: procura o menor k
+     * tal que m = round(x * 10^k) com m / 10^k == x. As duas operações são
+     * exatas ou corretamente arredondadas (m e 10^k são exatos em double),
+     * então m x 10^-k lido de volta dá x; e com até 15 dígitos significativos
+     * nenhum decimal mais curto pode dar o mesmo x. Devolve -1 se não achar.
+     */
+    private static int writeShortDecimal(double value, byte[] buffer, int offset) {
+        if (value < 1e-3 || value >= 1e7) return -1;
+        for (int k = 1; k < POWERS_OF_TEN.length; k++) {
+            double scaled = Math.rint(value * POWERS_OF_TEN[k]);
+            if (scaled >= MAX_SHORT_DIGITS) return -1;
+            if (scaled / POWERS_OF_TEN[k] != value) continue;
+
+            long digits = (long) scaled;
+            long unit = LONG_POWERS_OF_TEN[k];
+            offset = writeLong(digits / unit, buffer, offset);
+            buffer[offset++] = '.';
+            long fraction = digits % unit;
+            // Zeros à esquerda da parte fracionária (ex: 0.05 -> "05")
+            for (long place = unit / 10; place > fraction && place > 1; place /= 10) {
+                buffer[offset++] = '0';
+            }
+            return writeLong(fraction, buffer, offset);
+        }
+        return -1;
+    }
+
+    /**
+     * Parte dos dígitos do Double.toString, que sempre volta ao mesmo double
+     * mas às vezes tem um dígito a mais que o necessário, e vai encurtando:
+     * enquanto o prefixo com um dígito a menos (truncado ou arredondado para
+     * cima) ainda ler como o mesmo double, fica com ele.
+     *
+     * Este é o caminho que aloca (ver o comentário da classe): a String do
+     * Double.toString, os dois arrays de dígitos e, por candidato testado,
+     * o texto lido pelo Double.parseDouble.
+     */
+    private static int writeShortest(double value, byte[] buffer, int offset) {
+        String text = Double.toString(value);
+        byte[] digits = new byte[20];
+        int count = 0;
+        int pointIndex = -1;   // Quantos dígitos vieram antes do ponto
+        int exponent = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                pointIndex = count;
+            } else if (c == 'E') {
+                exponent = parseExponent(text, i + 1);
+                break;
+            } else {
+                digits[count++] = (byte) (c - '0');
+            }
+        }
+        // Normaliza para 0.d1d2...dn x 10^scale, sem zeros à esquerda/direita
+        int scale = pointIndex + exponent;
+        int first = 0;
+        while (first < count - 1 && digits[first] == 0) {
+            first++;
+            scale--;
+        }
+        System.arraycopy(digits, first, digits, 0, count - first);
+        count -= first;
+        while (count > 1 && digits[count - 1] == 0) count--;
+
+        byte[] candidate = new byte[20];
+        while (count > 1) {
+            int shorter = count - 1;
+            boolean roundUp = digits[shorter] >= 5;
+            // Tenta primeiro o candidato mais próximo, depois o outro
+            int kept = tryShorter(value, digits, shorter, scale, roundUp, candidate);
+            if (kept < 0) kept = tryShorter(value, digits, shorter, scale, !roundUp, candidate);
+            if (kept < 0) break;
+            if (kept == Integer.MAX_VALUE) { // O arredondamento propagou: 99.. -> 100..
+                digits[0] = 1;
+                count = 1;
+                scale++;
+            } else {
+                System.arraycopy(candidate, 0, digits, 0, kept);
+                count = kept;
+            }
+            while (count > 1 && digits[count - 1] == 0) count--;
+        }
+        return layout(digits, count, scale, buffer, offset);
+    }
+
+    // Expoente do Double.toString ("E-5", "E20"), sem criar substring
+    private static int parseExponent(String text, int start) {
+        boolean negative = text.charAt(start) == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < text.length(); i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // Prefixo de `length` dígitos (arredondado para cima se `up`) lido de volta
+    // dá `value`? Devolve o tamanho aceito em `candidate`, MAX_VALUE se virou
+    // uma potência de 10, ou -1 se não serve.
+    private static int tryShorter(double value, byte[] digits, int length, int scale,
+                                  boolean up, byte[] candidate) {
+        System.arraycopy(digits, 0, candidate, 0, length);
+        boolean overflow = false;
+        if (up) {
+            int i = length - 1;
+            while (i >= 0 && candidate[i] == 9) candidate[i--] = 0;
+            if (i < 0) overflow = true;
+            else candidate[i]++;
+        }
+        StringBuilder text = new StringBuilder(length + 8);
+        text.append("0.");
+        if (overflow) {
+            text.append('1');
+        } else {
+            for (int i = 0; i < length; i++) text.append((char) ('0' + candidate[i]));
+        }
+        text.append('E').append(overflow ? scale + 1 : scale);
+        if (Double.parseDouble(text.toString()) != value) return -1;
+        return overflow ? Integer.MAX_VALUE : length;
+    }
+
+    // Escreve 0.d1..dn x 10^scale no layout do Double.toString
+    private static int layout(byte[] digits, int count, int scale, byte[] buffer, int offset) {
+        int exponent = scale - 1; // Expoente da forma científica d1.d2...dn
+        if (exponent >= -3 && exponent < 7) {
+            if (scale <= 0) {
+                buffer[offset++] = '0';
+                buffer[offset++] = '.';
+                for (int i = scale; i < 0; i++) buffer[offset++] = '0';
+                for (int i = 0; i < count; i++) buffer[offset++] = (byte) ('0' + digits[i]);
+            } else {
+                for (int i = 0; i < scale; i++) buffer[offset++] = (byte) ('0' + (i < count ? digits[i] : 0));
+                buffer[offset++] = '.';
+                if (count <= scale) {
+                    buffer[offset++] = '0';
+                } else {
+                    for (int i = scale; i < count; i++) buffer[offset++] = (byte) ('0' + digits[i]);
+                }
+            }
+            return offset;
+        }
+        buffer[offset++] = (byte) ('0' + digits[0]);
+        buffer[offset++] = '.';
+        if (count == 1) {
+            buffer[offset++] = '0';
+        } else {
+            for (int i = 1; i < count; i++) buffer[offset++] = (byte) ('0' + digits[i]);
+        }
+        buffer[offset++] = 'E';
+        if (exponent < 0) {
+            buffer[offset++] = '-';
+            exponent = -exponent;
+        }
+        return writeLong(exponent, buffer, offset);
+    }
+}
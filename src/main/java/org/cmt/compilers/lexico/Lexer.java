@@ -1,6 +1,6 @@
 package main.java.org.cmt.compilers.lexico;
 
-import main.java.org.cmt.compilers.Heuler;
+import main.java.org.cmt.compilers.Diagnostics;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -25,9 +25,10 @@ public class Lexer {
     private int startColumn;
     private String source;
     private List<Token> tokens;
+    private final Diagnostics diagnostics; // Onde os erros léxicos são reportados
 
-    /** Mapa de palavras-reservadas -> token type. */
-    private static Map<String, TokenType> keywords = new HashMap<>();
+    /** Mapa de palavras-reservadas -> token type (só lido depois do bloco static). */
+    private static final Map<String, TokenType> keywords = new HashMap<>();
 
     static {
         // Palavras-reservadas atualmente mapeadas.
@@ -57,8 +58,9 @@ public class Lexer {
     keywords.put("in", TokenType.Identifier); // 'in' treated as identifier or reserved in grammar; keep as Identifier for now
     }
 
-    public Lexer() {
+    public Lexer(Diagnostics diagnostics) {
         this.tokens = new ArrayList<>();
+        this.diagnostics = diagnostics;
     }
 
     /**
@@ -187,7 +189,7 @@ public class Lexer {
                     identifier();
                 } else {
                     // caractere desconhecido -> reporta erro léxico
-                    Heuler.error(line, "Caractere inválido.");
+                    diagnostics.error(line, "Caractere inválido.");
                 }
             }
         }
@@ -207,7 +209,7 @@ public class Lexer {
         }
 
         if (isAtEnd()) {
-            Heuler.error(line, "String não terminada.");
+            diagnostics.error(line, "String não terminada.");
             return;
         }
 
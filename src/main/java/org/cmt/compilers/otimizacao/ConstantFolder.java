@@ -0,0 +1,322 @@
+// Arquivo: ConstantFolder.java
+package main.java.org.cmt.compilers.otimizacao;
+
+import main.java.org.cmt.compilers.bytecode.ValueFormatter;
+import main.java.org.cmt.compilers.lexico.Token;
+import main.java.org.cmt.compilers.lexico.TokenType;
+import main.java.org.cmt.compilers.sintatico.Stmt;
+import main.java.org.cmt.compilers.sintatico.expressions.Expr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Dobragem de constantes (constant folding) sobre a AST.
+ * Roda entre o Resolver e o Compilador e devolve uma nova árvore em que:
+ * - operações cujos operandos são todos literais viram um único literal
+ *   (aritmética, comparações, igualdade, concatenação, '!' e '-');
+ * - `and` / `or` com o lado esquerdo literal ficam só com o lado escolhido;
+ * - identidades algébricas exatas são removidas quando o outro operando é
+ *   comprovadamente numérico: `x * 1`, `1 * x`, `x / 1` e `x - 0`.
+ *
+ * O resultado tem de ser exatamente o que a VM calcularia. Por isso:
+ * - operações que dariam erro de execução (ex: `true + 1`, `-"a"`) não são
+ *   dobradas, para o erro continuar a acontecer na mesma hora;
+ * - `x + 0` NÃO é simplificado: para x = -0.0 a soma dá 0.0;
+ * - comparações e igualdade entre números seguem o IEEE 754, como a VM
+ *   (NaN != NaN, 0 == -0).
+ *
+ * Para saber se uma variável é numérica o Folder acompanha os escopos e as
+ * anotações `var int` / `var float`, com as mesmas regras do Compilador.
+ */
+public class ConstantFolder implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // Escopos locais: nome -> a variável foi declarada como int/float?
+    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // Globais anotadas como int/float
+    private final Map<String, Boolean> globals = new HashMap<>();
+
+    /**
+     * Ponto de entrada: devolve os comandos com as expressões dobradas.
+     * Comandos nulos (vindos da recuperação de erros do Parser) são mantidos.
+     */
+    public List<Stmt> fold(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            result.add(fold(statement));
+        }
+        return result;
+    }
+
+    private Stmt fold(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr fold(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    // --- Comandos ---
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        List<Stmt> statements = fold(stmt.statements);
+        scopes.pop();
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(fold(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(fold(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        // O inicializador é dobrado antes de a variável existir (como no Compilador)
+        Expr initializer = fold(stmt.initializer);
+        boolean numeric = stmt.typeToken != null
+                && (stmt.typeToken.type == TokenType.Int || stmt.typeToken.type == TokenType.Float);
+        if (scopes.isEmpty()) {
+            globals.put(stmt.name.lexeme, numeric);
+        } else {
+            scopes.peek().put(stmt.name.lexeme, numeric);
+        }
+        return new Stmt.Var(stmt.name, stmt.typeToken, initializer);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        return new Stmt.If(fold(stmt.condition), fold(stmt.thenBranch), fold(stmt.elseBranch));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        return new Stmt.While(fold(stmt.body), fold(stmt.condition));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Expr iterable = fold(stmt.iterable);
+        // O iterador vive num escopo próprio e não tem tipo declarado
+        scopes.push(new HashMap<>());
+        scopes.peek().put(stmt.iterator.lexeme, false);
+        Stmt body = fold(stmt.body);
+        scopes.pop();
+        return new Stmt.For(stmt.iterator, iterable, body);
+    }
+
+    // --- Expressões ---
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = fold(expr.expression);
+        // Parênteses em volta de um literal não servem para nada
+        if (inner instanceof Expr.Literal) return inner;
+        return new Expr.Grouping(inner);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = fold(expr.right);
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            switch (expr.operator.type) {
+                case Minus:
+                    // OP_NEGATE só aceita números; com outro tipo o erro fica para a VM
+                    if (value instanceof Double) return new Expr.Literal(-(Double) value);
+                    break;
+                case Bang:
+                    return new Expr.Literal(isFalsey(value));
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = fold(expr.left);
+        Expr right = fold(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Object folded = evaluate(expr.operator, ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (folded != NOT_FOLDED) return new Expr.Literal(folded);
+        }
+
+        Expr simplified = simplify(expr.operator, left, right);
+        if (simplified != null) return simplified;
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = fold(expr.left);
+        Expr right = fold(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean falsey = isFalsey(((Expr.Literal) left).value);
+            // and: esquerda falsa -> ela mesma; senão a direita.
+            // or:  esquerda verdadeira -> ela mesma; senão a direita.
+            boolean keepLeft = expr.operator.type == TokenType.And ? falsey : !falsey;
+            return keepLeft ? left : right;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, fold(expr.value));
+    }
+
+    // Nós que o Compilador ainda não suporta passam intactos
+    @Override public Expr visitCallExpr(Expr.Call expr) { return expr; }
+    @Override public Expr visitGetExpr(Expr.Get expr) { return expr; }
+    @Override public Expr visitSetExpr(Expr.Set expr) { return expr; }
+    @Override public Expr visitThisExpr(Expr.This expr) { return expr; }
+    @Override public Expr visitSuperExpr(Expr.Super expr) { return expr; }
+
+    // --- Avaliação (mesma semântica da VM) ---
+
+    // Marca "não dá para dobrar" (null já é o valor 'nil')
+    private static final Object NOT_FOLDED = new Object();
+
+    private Object evaluate(Token operator, Object a, Object b) {
+        boolean numbers = a instanceof Double && b instanceof Double;
+        switch (operator.type) {
+            case Plus:
+                if (numbers) return (Double) a + (Double) b;
+                // Concatenação: basta um dos lados ser string (como em VM.binaryOp)
+                if (a instanceof String || b instanceof String) return stringify(a) + stringify(b);
+                return NOT_FOLDED;
+            case Minus:
+                return numbers ? (Object) ((Double) a - (Double) b) : NOT_FOLDED;
+            case Star:
+                return numbers ? (Object) ((Double) a * (Double) b) : NOT_FOLDED;
+            case Slash:
+                return numbers ? (Object) ((Double) a / (Double) b) : NOT_FOLDED;
+            case Greater:
+                return numbers ? (Object) ((Double) a > (Double) b) : NOT_FOLDED;
+            case Less:
+                return numbers ? (Object) ((Double) a < (Double) b) : NOT_FOLDED;
+            case GreaterEqual:
+                return numbers ? (Object) ((Double) a >= (Double) b) : NOT_FOLDED;
+            case LessEqual:
+                return numbers ? (Object) ((Double) a <= (Double) b) : NOT_FOLDED;
+            case EqualEqual:
+                return valuesEqual(a, b);
+            case BangEqual:
+                return !valuesEqual(a, b);
+            default:
+                return NOT_FOLDED;
+        }
+    }
+
+    // Igualdade da VM: números pelo IEEE 754 (não Double.equals), nil só igual a nil
+    private boolean valuesEqual(Object a, Object b) {
+        if (a instanceof Double && b instanceof Double) return (double) (Double) a == (Double) b;
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // nil e false são falsos; todo o resto é verdadeiro
+    private boolean isFalsey(Object value) {
+        return value == null || Boolean.FALSE.equals(value);
+    }
+
+    // Mesmo texto que a VM produz na concatenação
+    private String stringify(Object value) {
+        return ValueFormatter.format(value);
+    }
+
+    // --- Identidades algébricas ---
+
+    /**
+     * Remove operações neutras quando o outro operando é comprovadamente
+     * numérico. Só entram identidades exatas em IEEE 754 (incluindo -0.0 e
+     * NaN): x*1, 1*x, x/1 e x-0. Devolve null se nada se aplica.
+     */
+    private Expr simplify(Token operator, Expr left, Expr right) {
+        switch (operator.type) {
+            case Star:
+                if (isLiteral(right, 1.0) && isNumeric(left)) return left;
+                if (isLiteral(left, 1.0) && isNumeric(right)) return right;
+                return null;
+            case Slash:
+                if (isLiteral(right, 1.0) && isNumeric(left)) return left;
+                return null;
+            case Minus:
+                // Só +0.0: x - (-0.0) muda o sinal de um zero negativo
+                if (isLiteral(right, 0.0) && isNumeric(left)) return left;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    // O literal é exatamente este número? (Double.equals distingue 0.0 de -0.0)
+    private boolean isLiteral(Expr expr, double value) {
+        return expr instanceof Expr.Literal && Double.valueOf(value).equals(((Expr.Literal) expr).value);
+    }
+
+    /**
+     * A expressão produz sempre um número (ou interrompe a execução)?
+     * Mesmas regras do tipo estático do Compilador.
+     */
+    private boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).value instanceof Double;
+        if (expr instanceof Expr.Grouping) return isNumeric(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) {
+            // OP_NEGATE aborta a execução se o operando não for número
+            return ((Expr.Unary) expr).operator.type == TokenType.Minus;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case Plus:
+                case Minus:
+                case Star:
+                case Slash:
+                    return isNumeric(binary.left) && isNumeric(binary.right);
+                default:
+                    return false;
+            }
+        }
+        if (expr instanceof Expr.Variable) return isNumericVariable(((Expr.Variable) expr).name);
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            return isNumericVariable(assign.name) || isNumeric(assign.value);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return isNumeric(logical.left) && isNumeric(logical.right);
+        }
+        return false;
+    }
+
+    // Procura do escopo mais interno para o global
+    private boolean isNumericVariable(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Boolean numeric = scopes.get(i).get(name.lexeme);
+            if (numeric != null) return numeric;
+        }
+        return globals.getOrDefault(name.lexeme, false);
+    }
+}
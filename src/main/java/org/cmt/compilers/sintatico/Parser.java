@@ -1,5 +1,6 @@
 package main.java.org.cmt.compilers.sintatico;
 
+import main.java.org.cmt.compilers.Diagnostics;
 import main.java.org.cmt.compilers.lexico.Token;
 import main.java.org.cmt.compilers.lexico.TokenType;
 import main.java.org.cmt.compilers.sintatico.expressions.*;
@@ -27,10 +28,12 @@ public class Parser {
     private int current = 0;
     private final EnumMap<TokenType, ParseRule> rules;
     private boolean panicMode = false; // usado para evitar mensagens de erro repetidas
+    private final Diagnostics diagnostics; // Onde os erros de sintaxe são reportados
 
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
         this.rules = new EnumMap<>(TokenType.class);
         initializeRules();
     }
@@ -313,7 +316,7 @@ public class Parser {
     /** Reporta erro de parsing formatado e entra em modo de pânico para evitar ruído. */
     private ParseError error(Token token, String message) {
         if (!panicMode) {  
-            main.java.org.cmt.compilers.Heuler.error(token, message);
+            diagnostics.error(token, message);
             panicMode = true; 
         }
         return new ParseError();
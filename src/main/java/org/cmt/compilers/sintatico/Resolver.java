@@ -1,7 +1,7 @@
 // Arquivo: Resolver.java
 package main.java.org.cmt.compilers.sintatico;
 
-import main.java.org.cmt.compilers.Heuler;
+import main.java.org.cmt.compilers.Diagnostics;
 import main.java.org.cmt.compilers.lexico.Token;
 import main.java.org.cmt.compilers.sintatico.expressions.Expr;
 
@@ -22,12 +22,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // Usaremos uma Pilha de Mapas. Cada mapa representa um escopo.
     // O boolean indica se a variável já foi "definida" (inicializada).
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Diagnostics diagnostics; // Onde os erros semânticos são reportados
 
     // (Vamos precisar de uma referência ao Interpretador/VM mais tarde 
     // para saber se estamos em modo global ou local, mas começamos assim.)
 
-    public Resolver() {
+    public Resolver(Diagnostics diagnostics) {
         // (Por enquanto, começamos com o escopo global implícito)
+        this.diagnostics = diagnostics;
     }
 
     /**
@@ -110,7 +112,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (!scopes.isEmpty() &&
                 scopes.peek().containsKey(expr.name.lexeme) &&
                 scopes.peek().get(expr.name.lexeme) == false) { // O 'false' que definimos em declare()
-            Heuler.error(expr.name, "Não pode ler uma variável local no seu próprio inicializador.");
+            diagnostics.error(expr.name, "Não pode ler uma variável local no seu próprio inicializador.");
         }
 
         resolveLocal(expr, expr.name);
@@ -172,7 +174,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         // Verifica se já existe uma variável com este nome no escopo local
         if (scope.containsKey(name.lexeme)) {
-            Heuler.error(name, "Já existe uma variável com este nome neste escopo.");
+            diagnostics.error(name, "Já existe uma variável com este nome neste escopo.");
         }
 
         scope.put(name.lexeme, false); // 'false' = declarada, mas não definida